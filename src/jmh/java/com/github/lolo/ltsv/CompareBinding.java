@@ -0,0 +1,83 @@
+package com.github.lolo.ltsv;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(value = Scope.Thread)
+@Fork(value = 3)
+@Threads(1)
+public class CompareBinding {
+
+    public static class Traffic {
+        private String srcip;
+        private int srcport;
+        private String dstip;
+        private int dstport;
+        private String action;
+        private long sentbyte;
+        private long rcvdbyte;
+        private int duration;
+    }
+
+    private byte[] streamSample;
+
+    private LtsvParser ltsv;
+
+    private LtsvBinder<Traffic> binder;
+
+    @Setup(Level.Trial)
+    public void initParser() {
+        ltsv = LtsvParser.builder().build();
+        binder = ltsv.bind(Traffic.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void initSample() {
+        String base = "date:2013-07-26\ttime:13:26:27\tdevname:fortigate\ttype:traffic\tsubtype:forward\tlevel:notice\teventtime:%d\tsrcip:10.0.%d.%d\tsrcport:%d\tdstip:127.0.0.1\tdstport:443\tsessionid:%d\tproto:6\taction:close\tpolicyid:12345\tservice:HTTPS\tduration:%d\tsentbyte:%d\trcvdbyte:%d\tsentpkt:6\trcvdpkt:5\tappcat:unscanned";
+        Random rng = new Random();
+        StringBuilder sb = new StringBuilder(1024 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            sb
+                .append(String.format(base, rng.nextInt(), rng.nextInt(256), rng.nextInt(256), rng.nextInt(65536), rng.nextInt(), rng.nextInt(100), rng.nextInt(Integer.MAX_VALUE), rng.nextInt(Integer.MAX_VALUE)))
+                .append('\n');
+        }
+        streamSample = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void testMapManualMapping(final Blackhole blackhole) {
+        Iterator<Map<String, String>> it = ltsv.parse(new ByteArrayInputStream(streamSample));
+        while (it.hasNext()) {
+            Map<String, String> row = it.next();
+            Traffic traffic = new Traffic();
+            traffic.srcip = row.get("srcip");
+            traffic.srcport = Integer.parseInt(row.get("srcport"));
+            traffic.dstip = row.get("dstip");
+            traffic.dstport = Integer.parseInt(row.get("dstport"));
+            traffic.action = row.get("action");
+            traffic.sentbyte = Long.parseLong(row.get("sentbyte"));
+            traffic.rcvdbyte = Long.parseLong(row.get("rcvdbyte"));
+            traffic.duration = Integer.parseInt(row.get("duration"));
+            blackhole.consume(traffic);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void testBinder(final Blackhole blackhole) {
+        Iterator<Traffic> it = binder.parse(new ByteArrayInputStream(streamSample));
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
+    }
+}
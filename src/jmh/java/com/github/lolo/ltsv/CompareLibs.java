@@ -6,7 +6,6 @@ import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
 
 import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -17,7 +16,7 @@ import java.util.concurrent.TimeUnit;
 public class CompareLibs {
 
     private String lineSample;
-    private InputStream streamSample;
+    private byte[] streamSample;
 
     private LtsvParser ltsv;
     private LTSVParser ltsv4j;
@@ -30,7 +29,7 @@ public class CompareLibs {
 
     @Setup(Level.Iteration)
     public void initSample() {
-        String base = "date:2013-07-26 time:13:26:27 devname:fortigate devid:fg5h1edefad50230 logid:00000000%d type:traffic subtype:forward level:notice vd:root eventtime:%d srcip:127.0.0.1 srcport:5555 srcintf:vlan_1234 srcintfrole:lan dstip:127.0.0.1 dstport:5555 dstintf:vlan_9987 dstintfrole:lan poluuid:%s sessionid:%d proto:6 action:close policyid:12345 policytype:policy service:tcp-100500 dstcountry:reserved srccountry:reserved trandisp:noop duration:2 sentbyte:%d rcvdbyte:%d sentpkt:6 rcvdpkt:5 appcat:unscanned devtype:router_nat_device devcategory:windows_device mastersrcmac:d0:ff:19:ff:ba:a7 srcmac:de:2d:17:84:ae:00 srcserver:0 dstdevtype:windows_pc dstdevcategory:\"windows device\" dstosname:windows_10_2016 masterdstmac:d7:0d:38:2f:d6:83 dstmac:d7:0d:38:2f:d6:83 dstserver:%d";
+        String base = "date:2013-07-26\ttime:13:26:27\tdevname:fortigate\tdevid:fg5h1edefad50230\tlogid:00000000%d\ttype:traffic\tsubtype:forward\tlevel:notice\tvd:root\teventtime:%d\tsrcip:127.0.0.1\tsrcport:5555\tsrcintf:vlan_1234\tsrcintfrole:lan\tdstip:127.0.0.1\tdstport:5555\tdstintf:vlan_9987\tdstintfrole:lan\tpoluuid:%s\tsessionid:%d\tproto:6\taction:close\tpolicyid:12345\tpolicytype:policy\tservice:tcp-100500\tdstcountry:reserved\tsrccountry:reserved\ttrandisp:noop\tduration:2\tsentbyte:%d\trcvdbyte:%d\tsentpkt:6\trcvdpkt:5\tappcat:unscanned\tdevtype:router_nat_device\tdevcategory:windows_device\tmastersrcmac:d0:ff:19:ff:ba:a7\tsrcmac:de:2d:17:84:ae:00\tsrcserver:0\tdstdevtype:windows_pc\tdstdevcategory:\"windows device\"\tdstosname:windows_10_2016\tmasterdstmac:d7:0d:38:2f:d6:83\tdstmac:d7:0d:38:2f:d6:83\tdstserver:%d";
         Random rng = new Random();
         lineSample = String.format(base, rng.nextInt(99), rng.nextInt(), UUID.randomUUID().toString(), rng.nextInt(), rng.nextInt(), rng.nextInt(), rng.nextInt(9));
         StringBuilder sb = new StringBuilder(1024 * 1024);
@@ -39,14 +38,17 @@ public class CompareLibs {
                 .append(String.format(base, rng.nextInt(99), rng.nextInt(), UUID.randomUUID().toString(), rng.nextInt(), rng.nextInt(), rng.nextInt(), rng.nextInt(9)))
                 .append('\n');
         }
-        streamSample = new ByteArrayInputStream(sb.toString().getBytes());
+        streamSample = sb.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     @Benchmark
     @BenchmarkMode({Mode.Throughput})
     @OutputTimeUnit(TimeUnit.SECONDS)
     public void testLtsvParserSingleString(final Blackhole blackhole) {
-        blackhole.consume(ltsv.parse(lineSample, StandardCharsets.UTF_8));
+        Iterator<Map<String, String>> it = ltsv.parse(lineSample, StandardCharsets.UTF_8);
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
     }
 
     @Benchmark
@@ -60,17 +62,17 @@ public class CompareLibs {
     @BenchmarkMode({Mode.Throughput})
     @OutputTimeUnit(TimeUnit.SECONDS)
     public void testLtsvParserMultiStream(final Blackhole blackhole) {
-        Iterator<Map<String, String>> it = ltsv.parse(streamSample);
-        List<Map<String, String>> list = new ArrayList<>();
-        it.forEachRemaining(list::add);
-        blackhole.consume(list);
+        Iterator<Map<String, String>> it = ltsv.parse(new ByteArrayInputStream(streamSample));
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
     }
 
     @Benchmark
     @BenchmarkMode({Mode.Throughput})
     @OutputTimeUnit(TimeUnit.SECONDS)
     public void testLTSV4JParserMultiStream(final Blackhole blackhole) {
-        List res = ltsv4j.parseLines(streamSample);
+        List res = ltsv4j.parseLines(new ByteArrayInputStream(streamSample));
         blackhole.consume(res);
     }
 
@@ -78,7 +80,10 @@ public class CompareLibs {
     @BenchmarkMode({Mode.AverageTime})
     @OutputTimeUnit(TimeUnit.NANOSECONDS)
     public void testLtsvParserSingleStringAT(final Blackhole blackhole) {
-        blackhole.consume(ltsv.parse(lineSample, StandardCharsets.UTF_8));
+        Iterator<Map<String, String>> it = ltsv.parse(lineSample, StandardCharsets.UTF_8);
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
     }
 
     @Benchmark
@@ -92,17 +97,17 @@ public class CompareLibs {
     @BenchmarkMode({Mode.AverageTime})
     @OutputTimeUnit(TimeUnit.NANOSECONDS)
     public void testLtsvParserMultiStreamAT(final Blackhole blackhole) {
-        Iterator<Map<String, String>> it = ltsv.parse(streamSample);
-        List<Map<String, String>> list = new ArrayList<>();
-        it.forEachRemaining(list::add);
-        blackhole.consume(list);
+        Iterator<Map<String, String>> it = ltsv.parse(new ByteArrayInputStream(streamSample));
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
     }
 
     @Benchmark
     @BenchmarkMode({Mode.AverageTime})
     @OutputTimeUnit(TimeUnit.NANOSECONDS)
     public void testLTSV4JParserMultiStreamAT(final Blackhole blackhole) {
-        List res = ltsv4j.parseLines(streamSample);
+        List res = ltsv4j.parseLines(new ByteArrayInputStream(streamSample));
         blackhole.consume(res);
     }
 }
@@ -0,0 +1,114 @@
+package com.github.lolo.ltsv;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the same generated lines from every kind of input. Every line is consumed: maps are handed to the
+ * blackhole, views and batches have a field decoded. Scores are per line
+ */
+@State(value = Scope.Thread)
+@Fork(value = 2)
+@Threads(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ParserBenchmark.LINES)
+public class ParserBenchmark {
+
+    static final int LINES = 1000;
+
+    @Param({"8", "32"})
+    private int fieldCount;
+
+    @Param({"8", "64"})
+    private int valueLength;
+
+    @Param({"0", "0.2"})
+    private double quotedRate;
+
+    @Param({"true", "false"})
+    private boolean strict;
+
+    private String text;
+
+    private byte[] bytes;
+
+    private Path file;
+
+    private LtsvParser ltsv;
+
+    private RecordBatch batch;
+
+    private String firstKey;
+
+    @Setup(Level.Trial)
+    public void init() throws IOException {
+        text = Workload.lines(LINES, fieldCount, valueLength, quotedRate);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        file = Files.createTempFile("ltsv-benchmark", ".ltsv");
+        Files.write(file, bytes);
+        ltsv = strict ? LtsvParser.builder().strict().build() : LtsvParser.builder().lenient().build();
+        batch = new RecordBatch();
+        firstKey = Workload.key(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void parseString(final Blackhole blackhole) {
+        consume(ltsv.parse(text, StandardCharsets.UTF_8), blackhole);
+    }
+
+    @Benchmark
+    public void parseCharSequence(final Blackhole blackhole) {
+        consume(ltsv.parse((CharSequence) text), blackhole);
+    }
+
+    @Benchmark
+    public void parseStream(final Blackhole blackhole) {
+        consume(ltsv.parse(new ByteArrayInputStream(bytes)), blackhole);
+    }
+
+    @Benchmark
+    public void parseFile(final Blackhole blackhole) {
+        consume(ltsv.parse(file), blackhole);
+    }
+
+    @Benchmark
+    public void parseRecords(final Blackhole blackhole) {
+        Iterator<LtsvRecord> it = ltsv.parseRecords(new ByteArrayInputStream(bytes));
+        while (it.hasNext()) {
+            blackhole.consume(it.next().get(firstKey));
+        }
+    }
+
+    @Benchmark
+    public void parseBatch(final Blackhole blackhole) {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        while (ltsv.parseBatch(in, batch, LINES) > 0) {
+            for (int i = 0; i < batch.size(); i++) {
+                blackhole.consume(batch.value(i, 0));
+            }
+        }
+    }
+
+    private static void consume(Iterator<Map<String, String>> it, Blackhole blackhole) {
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.lolo.ltsv;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows how parsing scales with cores: a single parser shared by one thread and by all available threads, with and
+ * without shared string caches, and a file parsed sequentially and with {@link LtsvParser#parallelParse(Path)}.
+ * Scores are per line
+ */
+@State(value = Scope.Benchmark)
+@Fork(value = 2)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScalingBenchmark {
+
+    static final int LINES = 1000;
+
+    static final int FILE_LINES = 100_000;
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private byte[] bytes;
+
+    private Path file;
+
+    private LtsvParser ltsv;
+
+    @Setup(Level.Trial)
+    public void init() throws IOException {
+        bytes = Workload.lines(LINES, 20, 16, 0.05).getBytes(StandardCharsets.UTF_8);
+        file = Files.createTempFile("ltsv-benchmark", ".ltsv");
+        Files.write(file, Workload.lines(FILE_LINES, 20, 16, 0.05).getBytes(StandardCharsets.UTF_8));
+        LtsvParser.Builder builder = LtsvParser.builder().withChunkSize(256 * 1024);
+        if (cached) {
+            builder.internKeys(1024).cacheValues(4096, Workload.key(0), Workload.key(1));
+        }
+        ltsv = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(LINES)
+    public void sharedParserOneThread(final Blackhole blackhole) {
+        consume(ltsv.parse(new ByteArrayInputStream(bytes)), blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(LINES)
+    public void sharedParserAllThreads(final Blackhole blackhole) {
+        consume(ltsv.parse(new ByteArrayInputStream(bytes)), blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(FILE_LINES)
+    public void sequentialFile(final Blackhole blackhole) {
+        consume(ltsv.parse(file), blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(FILE_LINES)
+    public void parallelFile(final Blackhole blackhole) {
+        consume(ltsv.parallelParse(file), blackhole);
+    }
+
+    private static void consume(Iterator<Map<String, String>> it, Blackhole blackhole) {
+        while (it.hasNext()) {
+            blackhole.consume(it.next());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.lolo.ltsv;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible LTSV lines of a given shape for benchmarks
+ */
+final class Workload {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789-._";
+
+    private Workload() {}
+
+    /**
+     * @param lines number of lines
+     * @param fieldCount number of entries in every line
+     * @param valueLength average length of a value, actual lengths vary from half of it to one and a half of it
+     * @param quotedRate share of values that are quoted and contain spaces, escaped quotes and escaped tabs
+     * @return lines separated by line endings, the last one included
+     */
+    static String lines(int lines, int fieldCount, int valueLength, double quotedRate) {
+        Random rng = new Random(42);
+        StringBuilder sb = new StringBuilder(lines * fieldCount * (valueLength + 12));
+        for (int i = 0; i < lines; i++) {
+            for (int f = 0; f < fieldCount; f++) {
+                if (f > 0) {
+                    sb.append('\t');
+                }
+                sb.append(key(f)).append(':');
+                int length = Math.max(1, valueLength / 2 + rng.nextInt(valueLength + 1));
+                if (rng.nextDouble() < quotedRate) {
+                    sb.append('"');
+                    for (int k = 0; k < length; k++) {
+                        int special = rng.nextInt(8);
+                        if (special == 0) {
+                            sb.append(' ');
+                        }
+                        else
+                        if (special == 1) {
+                            sb.append("\\\"");
+                        }
+                        else
+                        if (special == 2) {
+                            sb.append("\\\t");
+                        }
+                        else {
+                            sb.append(ALPHABET.charAt(rng.nextInt(ALPHABET.length())));
+                        }
+                    }
+                    sb.append('"');
+                }
+                else {
+                    for (int k = 0; k < length; k++) {
+                        sb.append(ALPHABET.charAt(rng.nextInt(ALPHABET.length())));
+                    }
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String key(int field) {
+        return String.format("field%02d", field);
+    }
+}
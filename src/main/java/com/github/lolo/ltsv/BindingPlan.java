@@ -0,0 +1,193 @@
+package com.github.lolo.ltsv;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how lines are written into objects of a class <br>
+ * A plan lists bound keys and writes decoded values through setter {@link MethodHandle}s adapted to a primitive or
+ * Object signature, so no reflection or boxing is involved per value. Setters of one signature are composed into a
+ * single handle taking the field index, which picks the setter of that field. Plans are built once per class and
+ * cached, keys are matched by a binder in the charset of its parser.
+ */
+final class BindingPlan {
+
+    private static final ClassValue<BindingPlan> PLANS = new ClassValue<BindingPlan>() {
+        @Override
+        protected BindingPlan computeValue(Class<?> type) {
+            return new BindingPlan(type);
+        }
+    };
+
+    private static final MethodType SET_OBJECT = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final MethodType SET_INT = MethodType.methodType(void.class, Object.class, int.class);
+
+    private static final MethodType SET_LONG = MethodType.methodType(void.class, Object.class, long.class);
+
+    private static final MethodType SET_DOUBLE = MethodType.methodType(void.class, Object.class, double.class);
+
+    private static final MethodType SET_BOOLEAN = MethodType.methodType(void.class, Object.class, boolean.class);
+
+    enum Kind {
+        STRING, INT, INTEGER, LONG, LONG_OBJECT, DOUBLE, DOUBLE_OBJECT, BOOLEAN, BOOLEAN_OBJECT
+    }
+
+    private final Class<?> type;
+
+    private final MethodHandle constructor;
+
+    final String[] names;
+
+    final Kind[] kinds;
+
+    /**
+     * Setter of String and wrapper fields: (Object target, int field, Object value)void
+     */
+    final MethodHandle setObject;
+
+    /**
+     * (Object target, int field, int value)void
+     */
+    final MethodHandle setInt;
+
+    /**
+     * (Object target, int field, long value)void
+     */
+    final MethodHandle setLong;
+
+    /**
+     * (Object target, int field, double value)void
+     */
+    final MethodHandle setDouble;
+
+    /**
+     * (Object target, int field, boolean value)void
+     */
+    final MethodHandle setBoolean;
+
+    private BindingPlan(Class<?> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<?> noArgs = type.getDeclaredConstructor();
+            noArgs.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalArgumentException(String.format("Class [%s] must have a no-argument constructor", type.getName()), ex);
+        }
+        Map<String, Field> fields = new LinkedHashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                LtsvKey key = field.getAnnotation(LtsvKey.class);
+                fields.putIfAbsent(key == null ? field.getName() : key.value(), field);
+            }
+        }
+        List<String> names = new ArrayList<>(fields.keySet());
+        this.names = names.toArray(new String[0]);
+        this.kinds = new Kind[names.size()];
+        MethodHandle[] setters = new MethodHandle[names.size()];
+        for (int i = 0; i < this.names.length; i++) {
+            Field field = fields.get(this.names[i]);
+            kinds[i] = kind(field);
+            field.setAccessible(true);
+            try {
+                setters[i] = lookup.unreflectSetter(field).asType(setterType(kinds[i]));
+            }
+            catch (IllegalAccessException ex) {
+                throw new IllegalArgumentException(String.format("Field [%s] of class [%s] is not accessible", field.getName(), type.getName()), ex);
+            }
+        }
+        this.setObject = compose(setters, SET_OBJECT);
+        this.setInt = compose(setters, SET_INT);
+        this.setLong = compose(setters, SET_LONG);
+        this.setDouble = compose(setters, SET_DOUBLE);
+        this.setBoolean = compose(setters, SET_BOOLEAN);
+    }
+
+    static BindingPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    Object newInstance() {
+        try {
+            return constructor.invokeExact();
+        }
+        catch (Throwable ex) {
+            throw new ParseLtsvException(String.format("Can not create an instance of [%s]", type.getName()), ex);
+        }
+    }
+
+    private static Kind kind(Field field) {
+        Class<?> type = field.getType();
+        if (type == String.class) {
+            return Kind.STRING;
+        }
+        if (type == int.class) {
+            return Kind.INT;
+        }
+        if (type == Integer.class) {
+            return Kind.INTEGER;
+        }
+        if (type == long.class) {
+            return Kind.LONG;
+        }
+        if (type == Long.class) {
+            return Kind.LONG_OBJECT;
+        }
+        if (type == double.class) {
+            return Kind.DOUBLE;
+        }
+        if (type == Double.class) {
+            return Kind.DOUBLE_OBJECT;
+        }
+        if (type == boolean.class) {
+            return Kind.BOOLEAN;
+        }
+        if (type == Boolean.class) {
+            return Kind.BOOLEAN_OBJECT;
+        }
+        throw new IllegalArgumentException(String.format("Field [%s] of type [%s] can not be bound", field.getName(), type.getName()));
+    }
+
+    /**
+     * Composes setters of a given signature into one handle with the field index as its second argument
+     * @param setters setter of every field, adapted to the signature of its kind
+     * @param type setter signature
+     */
+    private static MethodHandle compose(MethodHandle[] setters, MethodType type) {
+        // (int field)MethodHandle
+        MethodHandle select = MethodHandles.arrayElementGetter(MethodHandle[].class).bindTo(setters);
+        // (int field, Object target, value)void
+        MethodHandle invoke = MethodHandles.filterArguments(MethodHandles.exactInvoker(type), 0, select);
+        return MethodHandles.permuteArguments(invoke, type.insertParameterTypes(1, int.class), 1, 0, 2);
+    }
+
+    private static MethodType setterType(Kind kind) {
+        switch (kind) {
+            case INT:
+                return SET_INT;
+            case LONG:
+                return SET_LONG;
+            case DOUBLE:
+                return SET_DOUBLE;
+            case BOOLEAN:
+                return SET_BOOLEAN;
+            default:
+                return SET_OBJECT;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.lolo.ltsv;
+
+/**
+ * A snapshot of string cache counters
+ */
+public final class CacheStats {
+
+    static final CacheStats DISABLED = new CacheStats(0, 0, 0, 0);
+
+    private final int capacity;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    CacheStats(int capacity, long hits, long misses, long evictions) {
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @return maximum number of cached strings, 0 if a cache is disabled
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of lookups that returned a cached string
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that had to decode a string
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return number of strings evicted to make room for new ones
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return share of lookups that returned a cached string, from 0 to 1
+     */
+    public double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("CacheStats{capacity=%d, hits=%d, misses=%d, evictions=%d}", capacity, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,292 @@
+package com.github.lolo.ltsv;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.github.lolo.ltsv.ParseMode.*;
+
+/**
+ * Parses a string that is already in memory as characters, the counterpart of {@link ParseCursor} for byte input <br>
+ * It runs the same {@link Transitions}, but keys and values are copied out of the string with a single substring
+ * instead of encoding the string to bytes and decoding fields back. Only fields with escaped or quoted characters are
+ * collected in a scratch buffer. Positions in error messages are counted in characters.
+ */
+final class CharCursor extends LineCursor implements Iterator<Map<String, String>> {
+
+    private final FieldDecoder decoder;
+
+    private final Charset charset;
+
+    private final CharSequence data;
+
+    private final Field key = new Field();
+
+    private final Field value = new Field();
+
+    private int offset = 0;
+
+    private int line = 0;
+
+    /**
+     * A row parsed ahead by hasNext() when malformed lines are dropped
+     */
+    private Map<String, String> ahead;
+
+    CharCursor(LtsvParser parser, CharSequence data) {
+        super(parser, parser.deadLetterHandler, parser.metrics);
+        this.decoder = parser.decoder;
+        this.charset = parser.charset;
+        this.data = data;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        if (errorPolicy == LtsvErrorPolicy.FAIL) {
+            return offset < data.length();
+        }
+        while (ahead == null && offset < data.length()) {
+            ahead = next(line++);
+        }
+        return ahead != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (errorPolicy == LtsvErrorPolicy.FAIL) {
+            return next(line++);
+        }
+        Map<String, String> result = ahead;
+        ahead = null;
+        return result;
+    }
+
+    private void putEntry(Map<String, String> result, int lineNum, int position) {
+        if (key.size() > 0) {
+            if (trimKeys) {
+                key.trim(data);
+            }
+            if (selects()) {
+                String k = decoder.key(key.source(data), key.start, key.end);
+                if (value.size() == 0) {
+                    if (!skipNullValues) {
+                        result.put(k, null);
+                    }
+                }
+                else {
+                    if (trimValues) {
+                        value.trim(data);
+                    }
+                    result.put(k, decoder.value(k, value.source(data), value.start, value.end));
+                }
+            }
+        }
+        else {
+            if (value.size() > 0) {
+                emptyKey(lineNum, position);
+                if (projection == null) {
+                    if (trimValues) {
+                        value.trim(data);
+                    }
+                    result.put(null, decoder.value(null, value.source(data), value.start, value.end));
+                }
+            }
+        }
+        key.reset();
+        value.reset();
+    }
+
+    private boolean selects() {
+        return projection == null || !value.skipping && projection.indexOf(key.source(data), key.start, key.end) >= 0;
+    }
+
+    /**
+     * Called when a key is complete, so a value of a key that is not selected is not collected at all
+     */
+    private void project() {
+        if (projection != null) {
+            // raw key boundaries still decide if a key is empty, so they are restored after matching
+            int start = key.start;
+            int end = key.end;
+            if (trimKeys) {
+                key.trim(data);
+            }
+            value.skipping = projection.indexOf(key.source(data), key.start, key.end) < 0;
+            key.start = start;
+            key.end = end;
+        }
+    }
+
+    /**
+     * Parses the next line. If it can not be parsed, the rest of it is skipped, same as in {@link ParseCursor}
+     * @return a new row, or <b>null</b> if the line was dropped
+     */
+    private Map<String, String> next(int lineNum) {
+        int lineStart = offset;
+        try {
+            return parse(lineNum);
+        }
+        catch (ParseLtsvException ex) {
+            int end = skipLine(lineStart);
+            if (errorPolicy == LtsvErrorPolicy.FAIL) {
+                throw ex;
+            }
+            if (deadLetterHandler != null) {
+                byte[] line = data.subSequence(lineStart, end).toString().getBytes(charset);
+                deadLetterHandler.reject(line, lineNum, lineStart, ex);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Moves to the start of the next line, unless the last parsed character already ended the line
+     * @return index of the line end, excluding the line ending
+     */
+    private int skipLine(int lineStart) {
+        if (offset > lineStart && data.charAt(offset - 1) == lineEnding) {
+            return offset - 1;
+        }
+        while (offset < data.length()) {
+            if (data.charAt(offset++) == lineEnding) {
+                return offset - 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Parses a line, applying {@link Transitions} of its characters
+     */
+    private Map<String, String> parse(int lineNum) {
+        CharSequence data = this.data;
+        Map<String, String> result = new HashMap<>();
+        Field key = this.key;
+        Field value = this.value;
+        key.reset();
+        value.reset();
+        int cursor = offset;
+        int limit = data.length();
+        int lineStart = cursor;
+        int position = 0;
+        int mode = KEY;
+        long started = metrics == null ? 0 : System.nanoTime();
+        try {
+            while (mode != EOL && cursor < limit) {
+                int c = data.charAt(cursor++);
+                position = cursor - lineStart;
+                int transition = transitions.of(mode, c);
+                if ((transition & Transitions.CHECKED) != 0) {
+                    if ((transition & Transitions.IF_EMPTY_VALUE) != 0 && value.size() > 0) {
+                        transition = transitions.otherwise(mode, c);
+                    }
+                    check(transition, lineNum, position, c, key.size() == 0);
+                    if ((transition & Transitions.PUT_ENTRY) != 0) {
+                        putEntry(result, lineNum, position);
+                    }
+                    if ((transition & Transitions.PROJECT) != 0) {
+                        project();
+                    }
+                }
+                if ((transition & Transitions.APPEND_KEY) != 0) {
+                    key.append(data, cursor - 1);
+                }
+                else if ((transition & Transitions.APPEND_VALUE) != 0) {
+                    value.append(data, cursor - 1);
+                }
+                mode = transition & Transitions.MODE;
+            }
+        }
+        finally {
+            offset = cursor;
+        }
+
+        // save last k-v pair
+        putEntry(result, lineNum, position);
+        if (metrics != null) {
+            metrics.line(offset - lineStart, result.size(), System.nanoTime() - started);
+        }
+        return result;
+    }
+
+    /**
+     * A key or a value of the line being parsed: a <b>start</b>-<b>end</b> region of the string, or of a scratch
+     * buffer once some character in the middle was dropped, same as {@link FieldSlice}
+     */
+    private static final class Field {
+
+        private final StringBuilder scratch = new StringBuilder();
+
+        private int start;
+
+        private int end;
+
+        private boolean spilled;
+
+        private boolean skipping;
+
+        private void append(CharSequence data, int index) {
+            if (!spilled) {
+                if (start == end) {
+                    start = index;
+                    end = index + 1;
+                    return;
+                }
+                if (end == index || skipping) {
+                    end = index + 1;
+                    return;
+                }
+                scratch.setLength(0);
+                scratch.append(data, start, end);
+                start = 0;
+                end = scratch.length();
+                spilled = true;
+            }
+            scratch.append(data.charAt(index));
+            end++;
+        }
+
+        private int size() {
+            return end - start;
+        }
+
+        private CharSequence source(CharSequence data) {
+            return spilled ? scratch : data;
+        }
+
+        /**
+         * Same as {@link String#trim()}
+         */
+        private void trim(CharSequence data) {
+            CharSequence source = source(data);
+            while (start < end && source.charAt(start) <= ' ') {
+                start++;
+            }
+            while (start < end && source.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+
+        /**
+         * Prepares for the next field
+         */
+        private void reset() {
+            start = 0;
+            end = 0;
+            spilled = false;
+            skipping = false;
+        }
+
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.lolo.ltsv;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns raw key and value bytes into strings according to parser configuration <br>
+ * A field detected as pure ASCII while scanning is built as a Latin-1 string, which is a plain copy of its bytes,
+ * instead of running a decoder of the configured charset. This is only valid for charsets that represent ASCII
+ * characters as single bytes and never use ASCII bytes inside multibyte sequences, which is why input in other
+ * charsets is transcoded to UTF-8 before it is scanned.
+ */
+final class FieldDecoder {
+
+    private final Charset charset;
+
+    private final StringCache keyCache;
+
+    private final ValueCache valueCache;
+
+    FieldDecoder(Charset charset, StringCache keyCache, ValueCache valueCache) {
+        this.charset = charset;
+        this.keyCache = keyCache;
+        this.valueCache = valueCache;
+    }
+
+    String key(byte[] data, int offset, int length, boolean ascii) {
+        if (keyCache != null) {
+            return keyCache.get(data, offset, length, charset(ascii));
+        }
+        return new String(data, offset, length, charset(ascii));
+    }
+
+    String value(byte[] data, int offset, int length, boolean ascii) {
+        return new String(data, offset, length, charset(ascii));
+    }
+
+    /**
+     * Decodes a value that may be deduplicated depending on its key
+     */
+    String value(byte[] key, int keyOffset, int keyLength, byte[] data, int offset, int length, boolean ascii) {
+        return valueCache.get(key, keyOffset, keyLength, data, offset, length, charset(ascii));
+    }
+
+    /**
+     * Copies a key out of a string being parsed
+     */
+    String key(CharSequence data, int start, int end) {
+        if (keyCache != null) {
+            return keyCache.get(data, start, end, charset);
+        }
+        return data.subSequence(start, end).toString();
+    }
+
+    /**
+     * Copies a value out of a string being parsed, a value of a key that is not <b>null</b> may be deduplicated
+     */
+    String value(String key, CharSequence data, int start, int end) {
+        if (valueCache != null && key != null) {
+            return valueCache.get(key, data, start, end, charset);
+        }
+        return data.subSequence(start, end).toString();
+    }
+
+    /**
+     * @return charset of scanned bytes
+     */
+    Charset charset() {
+        return charset;
+    }
+
+    boolean cachesValues() {
+        return valueCache != null;
+    }
+
+    CacheStats keyCacheStats() {
+        return keyCache == null ? CacheStats.DISABLED : keyCache.stats();
+    }
+
+    CacheStats valueCacheStats() {
+        return valueCache == null ? CacheStats.DISABLED : valueCache.stats();
+    }
+
+    private Charset charset(boolean ascii) {
+        return ascii ? StandardCharsets.ISO_8859_1 : charset;
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.lolo.ltsv;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Accumulates a key or a value of the line being parsed without copying it <br>
+ * While field bytes come one after another, the field is just a <b>start</b>-<b>end</b> region of the input window,
+ * relative to the line beginning. When some input byte is dropped in the middle of a field (an escape or a quote
+ * character), the field is no longer contiguous: its bytes are moved to a scratch array shared by all fields of the
+ * same kind in the line, and further bytes are appended there. A field marked as <b>skipping</b> only keeps track of
+ * being non-empty and is never copied. Appended bytes are also OR-ed together, so a field consisting of ASCII bytes
+ * only is known without scanning it again and is decoded without a charset decoder.
+ */
+final class FieldSlice {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    int start;
+
+    int end;
+
+    boolean spilled;
+
+    boolean skipping;
+
+    byte[] scratch = EMPTY;
+
+    private int scratchSize;
+
+    private int bits;
+
+    /**
+     * Appends a byte to the field
+     * @param data window the byte was read from
+     * @param offset byte position relative to the line beginning
+     * @param c byte value
+     */
+    void append(InputBuffer data, int offset, int c) {
+        bits |= c;
+        if (!spilled) {
+            if (start == end) {
+                start = offset;
+                end = offset + 1;
+                return;
+            }
+            if (end == offset || skipping) {
+                end = offset + 1;
+                return;
+            }
+            spill(data);
+        }
+        if (end == scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(64, scratch.length << 1));
+        }
+        scratch[end++] = (byte) c;
+    }
+
+    /**
+     * Appends a run of bytes following the last appended byte
+     * @param data window the bytes were read from
+     * @param offset position of the first byte relative to the line beginning
+     * @param length number of bytes
+     * @param bits high bits of the run bytes
+     */
+    void appendRun(InputBuffer data, int offset, int length, int bits) {
+        this.bits |= bits;
+        if (!spilled) {
+            end = offset + length;
+            return;
+        }
+        if (end + length > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(64, (end + length) << 1));
+        }
+        copy(data, offset, length, end);
+        end += length;
+    }
+
+    private void spill(InputBuffer data) {
+        int length = end - start;
+        if (scratchSize + length >= scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(64, (scratchSize + length) << 1));
+        }
+        copy(data, start, length, scratchSize);
+        start = scratchSize;
+        end = scratchSize + length;
+        spilled = true;
+    }
+
+    private void copy(InputBuffer data, int offset, int length, int to) {
+        ByteBuffer window = data.data;
+        int from = data.mark + offset;
+        if (window.hasArray()) {
+            System.arraycopy(window.array(), window.arrayOffset() + from, scratch, to, length);
+        }
+        else {
+            for (int i = 0; i < length; i++) {
+                scratch[to + i] = window.get(from + i);
+            }
+        }
+    }
+
+    int size() {
+        return end - start;
+    }
+
+    /**
+     * @return <b>true</b> if all appended bytes are ASCII
+     */
+    boolean ascii() {
+        return bits < 0x80;
+    }
+
+    /**
+     * Compares field bytes with a given byte sequence
+     * @param data window of the line being parsed
+     * @param bytes bytes to compare with
+     * @return <b>true</b> if field content is the same
+     */
+    boolean contentEquals(InputBuffer data, byte[] bytes) {
+        if (bytes.length != end - start) {
+            return false;
+        }
+        if (spilled) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (scratch[start + i] != bytes[i]) {
+                    return false;
+                }
+            }
+        }
+        else {
+            ByteBuffer window = data.data;
+            int from = data.mark + start;
+            for (int i = 0; i < bytes.length; i++) {
+                if (window.get(from + i) != bytes[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes leading and trailing whitespace bytes the same way {@link String#trim()} does for characters
+     * @param data window of the line being parsed
+     */
+    void trim(InputBuffer data) {
+        if (spilled) {
+            while (start < end && (scratch[start] & 0xFF) <= ' ') {
+                start++;
+            }
+            while (start < end && (scratch[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+        }
+        else {
+            ByteBuffer window = data.data;
+            int mark = data.mark;
+            while (start < end && (window.get(mark + start) & 0xFF) <= ' ') {
+                start++;
+            }
+            while (start < end && (window.get(mark + end - 1) & 0xFF) <= ' ') {
+                end--;
+            }
+        }
+    }
+
+    /**
+     * @return field start encoded as a window offset if not negative, or as a bitwise complement of a scratch offset
+     */
+    int offset() {
+        return spilled ? ~start : start;
+    }
+
+    /**
+     * Prepares for the next field of the same line
+     */
+    void reset() {
+        if (spilled) {
+            scratchSize = end;
+        }
+        start = 0;
+        end = 0;
+        spilled = false;
+        skipping = false;
+        bits = 0;
+    }
+
+    /**
+     * Prepares for a new line
+     */
+    void clear() {
+        start = 0;
+        end = 0;
+        spilled = false;
+        skipping = false;
+        bits = 0;
+        scratchSize = 0;
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.lolo.ltsv;
+
+import java.io.InputStream;
+
+/**
+ * Keeps a cursor over the input a reusable batch was last filled from <br>
+ * The read window holds input ahead of the last parsed line, so a batch filled again from the same input must go on
+ * with the same cursor to continue where the previous fill stopped.
+ */
+final class InputBinding {
+
+    private LtsvParser parser;
+
+    private InputStream source;
+
+    private ParseCursor cursor;
+
+    private int nextLine;
+
+    /**
+     * Binds to a given parser and input, creating a new cursor if either of them changed
+     * @return <b>true</b> if a new cursor was created
+     */
+    boolean bind(LtsvParser parser, InputStream source) {
+        if (this.parser == parser && this.source == source) {
+            return false;
+        }
+        this.parser = parser;
+        this.source = source;
+        this.cursor = new ParseCursor(parser, InputBuffer.of(parser.input(source), parser.bufferSize, parser.maxRetainedBufferSize));
+        this.nextLine = 0;
+        return true;
+    }
+
+    ParseCursor cursor() {
+        return cursor;
+    }
+
+    /**
+     * @return number of the next line to parse, counted from the start of the input
+     */
+    int nextLine() {
+        return nextLine++;
+    }
+}
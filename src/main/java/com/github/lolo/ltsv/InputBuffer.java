@@ -0,0 +1,298 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reusable read window over parser input <br>
+ * Stream data is pulled in large chunks, so the parser does not touch the underlying stream for every byte. The parser
+ * reads bytes by absolute index between <b>position</b> and <b>limit</b> and asks for a refill when the window is
+ * drained. Everything starting from <b>mark</b> (the beginning of a line being parsed) is kept in the window, so a
+ * whole line is always available as a contiguous region and can be referenced by offsets. <br>
+ * A file may be memory-mapped instead of read. Then the window is a mapped region of the file, which is mapped again
+ * starting from <b>mark</b> when it is drained, so a file of any size is parsed without copying it. <br>
+ * When a drained stream is released, its window array is kept by the thread that released it and reused by the next
+ * stream of the same configured capacity. The array keeps the size it has grown to, unless it grew beyond a given
+ * maximum, so a thread parsing many short inputs allocates its window once. <br>
+ * A window may also be fed: data is pushed into it by the caller, and running out of data does not end the input
+ * until the caller says so.
+ */
+final class InputBuffer {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    static final int MAP_WINDOW = 1 << 30;
+
+    static final int DEFAULT_MAX_RETAINED = 1 << 20;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final ThreadLocal<Retained> RETAINED = ThreadLocal.withInitial(Retained::new);
+
+    private final InputStream source;
+
+    private final CheckedBiFunction<Long, Long, ByteBuffer> mapper;
+
+    /**
+     * End of a mapped file
+     */
+    private final long size;
+
+    private final int window;
+
+    /**
+     * Interval to poll a source reporting end of data in tail mode, 0 if end of data is final
+     */
+    private final long tailNanos;
+
+    /**
+     * Configured window capacity of a stream
+     */
+    private final int capacity;
+
+    /**
+     * Largest window array kept for reuse when a stream is drained, 0 if it is never kept
+     */
+    private final int maxRetained;
+
+    private boolean released;
+
+    /**
+     * If <b>true</b>, more data may be pushed into the window, so the data it holds may end in the middle of a line
+     */
+    boolean feeding;
+
+    ByteBuffer data;
+
+    /**
+     * Offset of the window start in the source
+     */
+    long offset;
+
+    int mark;
+
+    int position;
+
+    int limit;
+
+    private InputBuffer(InputStream source, ByteBuffer data, int capacity, int limit, long tailNanos, int maxRetained) {
+        this.source = source;
+        this.data = data;
+        this.limit = limit;
+        this.mapper = null;
+        this.size = 0;
+        this.window = 0;
+        this.tailNanos = tailNanos;
+        this.capacity = capacity;
+        this.maxRetained = maxRetained;
+    }
+
+    private InputBuffer(CheckedBiFunction<Long, Long, ByteBuffer> mapper, long offset, long size, int window) {
+        this.source = null;
+        this.data = EMPTY;
+        this.mapper = mapper;
+        this.offset = offset;
+        this.size = size;
+        this.window = window;
+        this.tailNanos = 0;
+        this.capacity = 0;
+        this.maxRetained = 0;
+    }
+
+    static InputBuffer wrap(byte[] data) {
+        return new InputBuffer(null, ByteBuffer.wrap(data), data.length, data.length, 0, 0);
+    }
+
+    /**
+     * Reads a stream, reusing a window array of the current thread if there is one of the same capacity
+     * @param maxRetained largest window array to keep for reuse when the stream is drained, 0 to never keep it
+     */
+    static InputBuffer of(InputStream source, int capacity, int maxRetained) {
+        ByteBuffer data = null;
+        if (maxRetained > 0) {
+            Retained retained = RETAINED.get();
+            if (retained.data != null && retained.capacity == capacity) {
+                data = retained.data;
+                retained.data = null;
+            }
+        }
+        return new InputBuffer(source, data == null ? ByteBuffer.allocate(capacity) : data, capacity, 0, 0, maxRetained);
+    }
+
+    /**
+     * Creates an empty window that data is pushed into with {@link #push(ByteBuffer)}
+     */
+    static InputBuffer feed(int capacity) {
+        InputBuffer result = new InputBuffer(null, ByteBuffer.allocate(capacity), capacity, 0, 0, 0);
+        result.feeding = true;
+        return result;
+    }
+
+    /**
+     * Reads a source that may have more data after it reported the end, like a file being appended. The end of data
+     * is polled until the reading thread is interrupted
+     */
+    static InputBuffer tail(InputStream source, int capacity, long intervalNanos) {
+        return new InputBuffer(source, ByteBuffer.allocate(capacity), capacity, 0, intervalNanos, 0);
+    }
+
+    /**
+     * Maps a channel from its current position to its current size. The channel must stay open until parsing is done
+     */
+    static InputBuffer map(FileChannel channel, int window) throws IOException {
+        return new InputBuffer((position, length) -> channel.map(FileChannel.MapMode.READ_ONLY, position, length),
+                channel.position(), channel.size(), window);
+    }
+
+    /**
+     * Maps a file. The file is opened only for a moment every time a new window is mapped
+     */
+    static InputBuffer map(Path path, int window) throws IOException {
+        return map(path, 0, window);
+    }
+
+    /**
+     * Maps a file from a given offset to its current size
+     * @see #map(Path, int)
+     */
+    static InputBuffer map(Path path, long from, int window) throws IOException {
+        return new InputBuffer((position, length) -> {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+        }, from, Files.size(path), window);
+    }
+
+    /**
+     * Appends the next chunk of the source to the window. Data before <b>mark</b> is discarded to make room, so
+     * <b>mark</b>, <b>position</b> and <b>limit</b> may be shifted. If a line does not fit into the window, the window
+     * grows
+     * @return <b>true</b> if new data was read, <b>false</b> if there is nothing to read
+     * @throws IOException if something goes wrong with underlying input stream
+     */
+    boolean fill() throws IOException {
+        if (mapper != null) {
+            return remap();
+        }
+        if (source == null || released) {
+            return false;
+        }
+        reserve(1);
+        byte[] array = data.array();
+        int offset = data.arrayOffset();
+        int read = source.read(array, offset + limit, data.capacity() - limit);
+        while (read < 0 && tailNanos > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(tailNanos);
+            read = source.read(array, offset + limit, data.capacity() - limit);
+        }
+        if (read <= 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Appends all remaining bytes of a given buffer to a fed window. Data before <b>mark</b> is discarded to make room,
+     * same as in {@link #fill()}
+     */
+    void push(ByteBuffer source) {
+        int length = source.remaining();
+        reserve(length);
+        source.get(data.array(), data.arrayOffset() + limit, length);
+        limit += length;
+    }
+
+    /**
+     * Makes room for at least a given number of bytes after <b>limit</b>, discarding data before <b>mark</b> first and
+     * growing the window if that is not enough
+     */
+    private void reserve(int length) {
+        byte[] array = data.array();
+        int offset = data.arrayOffset();
+        if (mark > 0) {
+            System.arraycopy(array, offset + mark, array, offset, limit - mark);
+            this.offset += mark;
+            position -= mark;
+            limit -= mark;
+            mark = 0;
+        }
+        if (data.capacity() - limit < length) {
+            int capacity = data.capacity() << 1;
+            while (capacity - limit < length) {
+                capacity <<= 1;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            System.arraycopy(array, offset, grown.array(), 0, limit);
+            data = grown;
+        }
+    }
+
+    /**
+     * Maps the next window of a file starting from <b>mark</b>. A window holding a single line grows to fit it
+     */
+    private boolean remap() throws IOException {
+        long start = offset + mark;
+        if (offset + limit >= size) {
+            return false;
+        }
+        int length = (int) Math.min(size - start, Math.max(window, Math.min(Integer.MAX_VALUE, (long) (limit - mark) << 1)));
+        if (length <= limit - mark) {
+            throw new IOException("Line does not fit into a mapped window");
+        }
+        data = mapper.apply(start, (long) length);
+        offset = start;
+        position -= mark;
+        limit = length;
+        mark = 0;
+        return true;
+    }
+
+    /**
+     * Checks if there is any data left either in the window or in the source. The source is checked by reading ahead,
+     * because {@link InputStream#available()} of pipes, sockets or compressed streams may report nothing before
+     * the real end of data. So this call blocks until the next byte arrives or the source ends. The window is kept
+     * at the end of data, so the last line stays valid until the buffer is released
+     * @return <b>true</b> if at least one more byte can be read
+     * @throws IOException if something goes wrong with underlying input stream
+     */
+    boolean hasRemaining() throws IOException {
+        return position < limit || fill();
+    }
+
+    /**
+     * Gives the window array of a stream to the current thread for reuse, after that the buffer is empty. Records and
+     * fields still referencing the window must not be used anymore
+     */
+    void release() {
+        if (source == null || released) {
+            return;
+        }
+        released = true;
+        if (data.capacity() <= maxRetained) {
+            Retained retained = RETAINED.get();
+            retained.capacity = capacity;
+            retained.data = data;
+        }
+        data = EMPTY;
+        mark = 0;
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * A window array kept by a thread and the configured capacity it was created with
+     */
+    private static final class Retained {
+
+        private int capacity;
+
+        private ByteBuffer data;
+    }
+}
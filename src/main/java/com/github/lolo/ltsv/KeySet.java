@@ -0,0 +1,127 @@
+package com.github.lolo.ltsv;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A set of keys matched against raw key bytes of the line being parsed <br>
+ * Keys are grouped by encoded length, so a key of any other length is rejected with a single array lookup. Every key
+ * has an index, which is its position in the collection the set was built from. Keys can also be matched against
+ * characters of a string being parsed, then they are compared as strings.
+ */
+final class KeySet {
+
+    private static final byte[][] NONE = new byte[0][];
+
+    private static final int[] NO_INDEX = new int[0];
+
+    private final byte[][][] byLength;
+
+    private final int[][] indexes;
+
+    private final String[] keys;
+
+    KeySet(Collection<String> keys, Charset charset) {
+        this.keys = keys.toArray(new String[0]);
+        int maxLength = 0;
+        for (String key : keys) {
+            maxLength = Math.max(maxLength, key.getBytes(charset).length);
+        }
+        byLength = new byte[maxLength + 1][][];
+        indexes = new int[maxLength + 1][];
+        Arrays.fill(byLength, NONE);
+        Arrays.fill(indexes, NO_INDEX);
+        int index = 0;
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(charset);
+            byte[][] group = byLength[bytes.length];
+            group = Arrays.copyOf(group, group.length + 1);
+            group[group.length - 1] = bytes;
+            byLength[bytes.length] = group;
+            int[] groupIndexes = Arrays.copyOf(indexes[bytes.length], group.length);
+            groupIndexes[group.length - 1] = index++;
+            indexes[bytes.length] = groupIndexes;
+        }
+    }
+
+    boolean contains(InputBuffer data, FieldSlice key) {
+        return indexOf(data, key) >= 0;
+    }
+
+    boolean contains(byte[] data, int offset, int length) {
+        if (length >= byLength.length) {
+            return false;
+        }
+        for (byte[] candidate : byLength[length]) {
+            if (equals(candidate, data, offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return index of a key or -1 if there is no such key
+     */
+    int indexOf(InputBuffer data, FieldSlice key) {
+        int length = key.size();
+        if (length >= byLength.length) {
+            return -1;
+        }
+        byte[][] group = byLength[length];
+        for (int i = 0; i < group.length; i++) {
+            if (key.contentEquals(data, group[i])) {
+                return indexes[length][i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of a key or -1 if there is no such key
+     */
+    int indexOf(byte[] data, int offset, int length) {
+        if (length >= byLength.length) {
+            return -1;
+        }
+        byte[][] group = byLength[length];
+        for (int i = 0; i < group.length; i++) {
+            if (equals(group[i], data, offset)) {
+                return indexes[length][i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of a key equal to a region of characters or -1 if there is no such key
+     */
+    int indexOf(CharSequence data, int start, int end) {
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            if (key.length() == end - start && equals(key, data, start)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(String candidate, CharSequence data, int start) {
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != data.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] candidate, byte[] data, int offset) {
+        for (int i = 0; i < candidate.length; i++) {
+            if (candidate[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.lolo.ltsv;
+
+/**
+ * Configuration and error handling shared by cursors running the {@link Transitions} state machine <br>
+ * A subclass reads characters, applies the actions of their transitions to the fields it collects and leaves errors
+ * of malformed input to this class, so byte and character input fail and recover the same way.
+ */
+abstract class LineCursor {
+
+    private static final LtsvError[] ERRORS = LtsvError.values();
+
+    final Transitions transitions;
+
+    final int lineEnding;
+
+    final boolean strict;
+
+    final boolean skipNullValues;
+
+    final boolean trimKeys;
+
+    final boolean trimValues;
+
+    final KeySet projection;
+
+    final LtsvMetrics metrics;
+
+    final LtsvErrorPolicy errorPolicy;
+
+    final boolean stackTraces;
+
+    final LtsvDeadLetterHandler deadLetterHandler;
+
+    LineCursor(LtsvParser parser, LtsvDeadLetterHandler deadLetterHandler, LtsvMetrics metrics) {
+        this.transitions = parser.transitions;
+        this.lineEnding = parser.lineEnding;
+        this.strict = parser.strict;
+        this.skipNullValues = parser.skipNullValues;
+        this.trimKeys = parser.trimKeys;
+        this.trimValues = parser.trimValues;
+        this.projection = parser.projection;
+        this.metrics = metrics;
+        this.errorPolicy = parser.errorPolicy;
+        this.stackTraces = parser.stackTraces;
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * Handles the error of a transition, if it has one: throws it in strict mode and counts a recovery otherwise
+     * @param c the character of the transition
+     * @param emptyKey <b>true</b> if the key collected so far is empty
+     * @throws MalformedLtsvException if the line can not be parsed
+     */
+    final void check(int transition, int lineNum, int position, int c, boolean emptyKey) {
+        int error = transition >>> Transitions.ERROR_SHIFT & 0xFF;
+        if (error != 0) {
+            if (strict) {
+                throw error(ERRORS[error - 1], lineNum, position, (transition & Transitions.TOKEN) != 0 ? c : -1);
+            }
+            recovered(ERRORS[error - 1]);
+        }
+        if ((transition & Transitions.EMPTY_KEY) != 0 && emptyKey) {
+            throw error(LtsvError.EMPTY_KEY, lineNum, position, -1);
+        }
+    }
+
+    /**
+     * Handles a value without a key when an entry is added: throws in strict mode and counts a recovery otherwise
+     * @throws MalformedLtsvException if the line can not be parsed
+     */
+    final void emptyKey(int lineNum, int position) {
+        if (strict) {
+            throw error(LtsvError.EMPTY_KEY, lineNum, position, -1);
+        }
+        recovered(LtsvError.EMPTY_KEY);
+    }
+
+    final MalformedLtsvException error(LtsvError error, int lineNum, int position, int token) {
+        if (metrics != null) {
+            metrics.error(error);
+        }
+        return MalformedLtsvException.of(error, lineNum, position, token, stackTraces);
+    }
+
+    final void recovered(LtsvError error) {
+        if (metrics != null) {
+            metrics.recovery(error);
+        }
+    }
+}
@@ -1,25 +1,51 @@
 package com.github.lolo.ltsv;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
-public class LineIterator implements Iterator<Map<String, String>> {
+public class LineIterator<T> implements Iterator<T> {
 
-    private final InputStream data;
+    private final InputBuffer data;
 
-    private final CheckedBiFunction<InputStream, Integer, Map<String, String>> parseLine;
+    private final CheckedBiFunction<InputBuffer, Integer, T> parseLine;
+
+    /**
+     * If <b>true</b>, parseLine returns <b>null</b> for a dropped line, so hasNext() parses ahead to find out if
+     * there is a row left
+     */
+    private final boolean skipping;
+
+    /**
+     * If <b>true</b>, parseLine returns views of the read window, so the window is released only when hasNext() is
+     * called again after it reported the end, and the last view stays valid until then. Otherwise the window is
+     * released as soon as the end is reached
+     */
+    private final boolean views;
+
+    private boolean drained;
+
+    private T ahead;
 
     private int line = 0;
 
-    private LineIterator(InputStream data, CheckedBiFunction<InputStream, Integer, Map<String, String>> parseLine) {
+    private LineIterator(InputBuffer data, CheckedBiFunction<InputBuffer, Integer, T> parseLine, boolean skipping, boolean views) {
         this.data = data;
         this.parseLine = parseLine;
+        this.skipping = skipping;
+        this.views = views;
+    }
+
+    static <T> Iterator<T> newIterator(InputBuffer data, CheckedBiFunction<InputBuffer, Integer, T> parseLine, boolean skipping) {
+        return new LineIterator<>(data, parseLine, skipping, false);
     }
 
-    static Iterator<Map<String, String>> newIterator(InputStream data, CheckedBiFunction<InputStream, Integer, Map<String, String>> parseLine) {
-        return new LineIterator(data, parseLine);
+    /**
+     * Creates an iterator of views of the read window
+     * @see #views
+     */
+    static <T> Iterator<T> newViewIterator(InputBuffer data, CheckedBiFunction<InputBuffer, Integer, T> parseLine, boolean skipping) {
+        return new LineIterator<>(data, parseLine, skipping, true);
     }
 
     /**
@@ -28,7 +54,13 @@ public class LineIterator implements Iterator<Map<String, String>> {
     @Override
     public boolean hasNext() {
         try {
-            return data.available() > 0;
+            if (!skipping) {
+                return hasRemaining();
+            }
+            while (ahead == null && hasRemaining()) {
+                ahead = parseLine.apply(data, line++);
+            }
+            return ahead != null;
         }
         catch (IOException ex) {
             throw new ParseLtsvException("Error reading data source", ex);
@@ -39,15 +71,31 @@ public class LineIterator implements Iterator<Map<String, String>> {
      * {@inheritDoc}
      */
     @Override
-    public Map<String, String> next() {
-        try {
-            Map<String, String> result = parseLine.apply(data, line);
-            line++;
+    public T next() {
+        if (skipping) {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = ahead;
+            ahead = null;
             return result;
         }
+        try {
+            return parseLine.apply(data, line++);
+        }
         catch (IOException ex) {
             throw new ParseLtsvException("Error reading data source", ex);
         }
     }
 
+    private boolean hasRemaining() throws IOException {
+        if (data.hasRemaining()) {
+            return true;
+        }
+        if (drained || !views) {
+            data.release();
+        }
+        drained = true;
+        return false;
+    }
 }
@@ -0,0 +1,126 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over rows of an input stream <br>
+ * A stream can only be parsed sequentially, so a split parses a batch of rows ahead into an array, which is then
+ * processed independently. Batches grow by <b>batchSize</b> rows on every split, so that short inputs are still
+ * split, while long ones are split into batches large enough to be worth handing over to another thread. Inputs that
+ * can be read from any offset are split by byte ranges instead, see {@link RangeSpliterator}.
+ */
+final class LineSpliterator implements Spliterator<Map<String, String>> {
+
+    private static final int MAX_BATCH = 1 << 25;
+
+    private final ParseCursor cursor;
+
+    private final int batchSize;
+
+    private int batch = 0;
+
+    private int line = 0;
+
+    LineSpliterator(ParseCursor cursor, int batchSize) {
+        this.cursor = cursor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Map<String, String>> action) {
+        try {
+            while (hasRemaining()) {
+                LtsvRecord record = cursor.next(line++);
+                if (record != null) {
+                    action.accept(record.toMap());
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super Map<String, String>> action) {
+        try {
+            while (hasRemaining()) {
+                LtsvRecord record = cursor.next(line++);
+                if (record != null) {
+                    action.accept(record.toMap());
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Spliterator<Map<String, String>> trySplit() {
+        try {
+            if (!hasRemaining()) {
+                return null;
+            }
+            batch = (int) Math.min(MAX_BATCH, (long) batch + batchSize);
+            Object[] rows = new Object[batch];
+            int count = 0;
+            do {
+                LtsvRecord record = cursor.next(line++);
+                if (record != null) {
+                    rows[count++] = record.toMap();
+                }
+            }
+            while (count < rows.length && hasRemaining());
+            if (count == 0) {
+                return null;
+            }
+            return Spliterators.spliterator(rows, 0, count, characteristics());
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Rows are copied out of the read window, so it is released as soon as the end of data is reached
+     */
+    private boolean hasRemaining() throws IOException {
+        if (cursor.data().hasRemaining()) {
+            return true;
+        }
+        cursor.data().release();
+        return false;
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.lolo.ltsv;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Parses lines straight into objects of a class <br>
+ * Every line creates a new object with a no-argument constructor, and values of keys matching its fields are decoded
+ * from raw bytes into field types: String, int, long, double, boolean or their wrappers. Keys without a field and
+ * empty values are skipped, so such fields keep their initial values. A binder is immutable and thread-safe, just
+ * like a parser that created it.
+ * @param <T> type of objects to bind lines to
+ */
+public final class LtsvBinder<T> {
+
+    private final LtsvParser parser;
+
+    private final Class<T> type;
+
+    private final BindingPlan plan;
+
+    private final KeySet keys;
+
+    LtsvBinder(LtsvParser parser, Class<T> type) {
+        this.parser = parser;
+        this.type = type;
+        this.plan = BindingPlan.of(type);
+        this.keys = new KeySet(Arrays.asList(plan.names), parser.charset);
+    }
+
+    /**
+     * Parses a given string
+     * @param data a string to parse
+     * @param charset character encoding to extract raw bytes correctly
+     * @return iterator containing a new object for each row
+     */
+    public Iterator<T> parse(String data, Charset charset) {
+        return newIterator(InputBuffer.wrap(parser.bytes(data, charset)));
+    }
+
+    /**
+     * Parses a given input stream to the end
+     * @param data a stream to parse
+     * @return iterator containing a new object for each row
+     */
+    public Iterator<T> parse(InputStream data) {
+        return newIterator(InputBuffer.of(parser.input(data), parser.bufferSize, parser.maxRetainedBufferSize));
+    }
+
+    private Iterator<T> newIterator(InputBuffer data) {
+        ParseCursor cursor = new ParseCursor(parser, data);
+        Binding binding = new Binding();
+        return LineIterator.newIterator(data, (in, lineNum) -> {
+            LtsvRecord record = cursor.next(lineNum);
+            if (record == null) {
+                return null;
+            }
+            try {
+                return binding.bind(record);
+            }
+            catch (ParseLtsvException ex) {
+                cursor.reject(lineNum, ex);
+                return null;
+            }
+        }, parser.skipsLines());
+    }
+
+    /**
+     * Writes fields of a record into a new object
+     */
+    private final class Binding implements LtsvHandler {
+
+        private Object target;
+
+        private LtsvRecord record;
+
+        private int line;
+
+        /**
+         * Index of the next entry passed by the record, entries are passed in order
+         */
+        private int entry;
+
+        private T bind(LtsvRecord record) {
+            target = plan.newInstance();
+            this.record = record;
+            record.emit(this);
+            return type.cast(target);
+        }
+
+        @Override
+        public void startRecord(int line) {
+            this.line = line;
+            this.entry = 0;
+        }
+
+        @Override
+        public void field(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+            int entry = this.entry++;
+            if (key == null || value == null) {
+                return;
+            }
+            int field = keys.indexOf(key, keyOffset, keyLength);
+            if (field < 0) {
+                return;
+            }
+            try {
+                write(field, entry, value, valueOffset, valueLength);
+            }
+            catch (NumberFormatException ex) {
+                if (parser.strict) {
+                    if (parser.metrics != null) {
+                        parser.metrics.error(LtsvError.INVALID_VALUE);
+                    }
+                    throw MalformedLtsvException.invalidValue(line, plan.names[field], null, ex, parser.stackTraces);
+                }
+                if (parser.metrics != null) {
+                    parser.metrics.recovery(LtsvError.INVALID_VALUE);
+                }
+            }
+        }
+
+        /**
+         * Strings are decoded by the record, so they take the same ASCII shortcut and caches as any other value
+         */
+        private void write(int field, int entry, byte[] value, int offset, int length) {
+            try {
+                switch (plan.kinds[field]) {
+                    case STRING:
+                        plan.setObject.invokeExact(target, field, (Object) record.value(entry));
+                        break;
+                    case INT:
+                        plan.setInt.invokeExact(target, field, (int) ValueParser.parseLong(value, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                        break;
+                    case INTEGER:
+                        plan.setObject.invokeExact(target, field, (Object) (int) ValueParser.parseLong(value, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                        break;
+                    case LONG:
+                        plan.setLong.invokeExact(target, field, ValueParser.parseLong(value, offset, length, Long.MIN_VALUE, Long.MAX_VALUE));
+                        break;
+                    case LONG_OBJECT:
+                        plan.setObject.invokeExact(target, field, (Object) ValueParser.parseLong(value, offset, length, Long.MIN_VALUE, Long.MAX_VALUE));
+                        break;
+                    case DOUBLE:
+                        plan.setDouble.invokeExact(target, field, ValueParser.parseDouble(value, offset, length));
+                        break;
+                    case DOUBLE_OBJECT:
+                        plan.setObject.invokeExact(target, field, (Object) ValueParser.parseDouble(value, offset, length));
+                        break;
+                    case BOOLEAN:
+                        plan.setBoolean.invokeExact(target, field, parseBoolean(value, offset, length));
+                        break;
+                    case BOOLEAN_OBJECT:
+                        plan.setObject.invokeExact(target, field, (Object) parseBoolean(value, offset, length));
+                        break;
+                }
+            }
+            catch (RuntimeException | Error ex) {
+                throw ex;
+            }
+            catch (Throwable ex) {
+                throw new ParseLtsvException(String.format("Can not write key [%s] at line [%d]", plan.names[field], line), ex);
+            }
+        }
+
+        /**
+         * Same as {@link Boolean#parseBoolean(String)}: <b>true</b> if a value is "true" ignoring case
+         */
+        private boolean parseBoolean(byte[] value, int offset, int length) {
+            if (length != 4) {
+                return false;
+            }
+            return (value[offset] | 0x20) == 't' && (value[offset + 1] | 0x20) == 'r'
+                    && (value[offset + 2] | 0x20) == 'u' && (value[offset + 3] | 0x20) == 'e';
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.github.lolo.ltsv;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reusable columns filled by {@link LtsvParser#parseBatch(InputStream, LtsvColumns, int)}, one column per key <br>
+ * A column is created for every key when it is first seen, and every parsed line appends one row to all columns: its
+ * value if a line has the key, or a null otherwise. Values are copied into a byte arena of their column with an
+ * offset per row, while keys declared in the parser schema get typed columns of decoded primitives. A validity bitmap
+ * of every column tells nulls apart. So lines are pivoted into columns as they are parsed, without creating rows,
+ * and arrays only grow, so refilling columns of similar batches allocates nothing. <br>
+ * Like in maps, the last of duplicate keys wins and an empty value is a null. Values without a key are skipped.
+ * Columns are not thread-safe.
+ * <pre>
+ *     LtsvColumns columns = new LtsvColumns();
+ *     while (parser.parseBatch(in, columns, 10000) &gt; 0) {
+ *         LtsvColumns.Column action = columns.column("action");
+ *         for (int row = 0; row &lt; columns.size(); row++) {
+ *             String value = action == null || action.isNull(row) ? null : action.getString(row);
+ *         }
+ *     }
+ * </pre>
+ */
+public final class LtsvColumns {
+
+    private final LtsvHandler writer = new LtsvHandler() {
+        @Override
+        public void field(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+            if (key == null) {
+                return;
+            }
+            Column column = find(key, keyOffset, keyLength);
+            if (column.type != null) {
+                return;
+            }
+            if (value == null) {
+                column.setNull(size);
+            }
+            else {
+                column.setBytes(size, value, valueOffset, valueLength);
+            }
+        }
+    };
+
+    final InputBinding input = new InputBinding();
+
+    private Column[] columns = new Column[16];
+
+    private int count;
+
+    /**
+     * Open addressing table of columns by key bytes
+     */
+    private Column[] table = new Column[32];
+
+    /**
+     * Column expected to be the next one in a line, since lines usually have keys in the same order
+     */
+    private int expected;
+
+    /**
+     * Typed columns by schema field index
+     */
+    private Column[] typed;
+
+    private Charset charset;
+
+    private int size;
+
+    /**
+     * @return number of rows in every column
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int columnCount() {
+        return count;
+    }
+
+    /**
+     * Returns a column by index. Columns of schema keys come first, the others follow in the order keys were seen
+     * @param index column index from 0 to {@link #columnCount()} exclusive
+     * @return a column
+     */
+    public Column column(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(String.format("Index [%d] is out of columns bounds [%d]", index, count));
+        }
+        return columns[index];
+    }
+
+    /**
+     * Returns a column of a given key
+     * @param key a key to look for
+     * @return a column or <b>null</b> if the key was never seen
+     */
+    public Column column(String key) {
+        for (int i = 0; i < count; i++) {
+            if (columns[i].key.equals(key)) {
+                return columns[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Empties columns before they are filled by a given parser from a given input. Columns are dropped when either
+     * the parser or the input changes, otherwise they are kept with no rows
+     */
+    void reset(LtsvParser parser, InputStream source) {
+        if (input.bind(parser, source)) {
+            Arrays.fill(columns, 0, count, null);
+            Arrays.fill(table, null);
+            count = 0;
+            charset = parser.charset;
+            LtsvSchema schema = parser.schema;
+            typed = schema == null ? null : new Column[schema.size()];
+            for (int f = 0; typed != null && f < typed.length; f++) {
+                LtsvSchema.Field field = schema.field(f);
+                byte[] key = field.key().getBytes(charset);
+                typed[f] = add(key, StringCache.hash(key, 0, key.length), field.type());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            columns[i].clear();
+        }
+        size = 0;
+    }
+
+    void append(LtsvRecord record) {
+        expected = 0;
+        record.emit(writer);
+        for (int f = 0; typed != null && f < typed.length; f++) {
+            if (record.isPresent(f)) {
+                typed[f].setLong(size, record.slot(f));
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Pads all columns with nulls up to the last row
+     */
+    void finish() {
+        for (int i = 0; i < count; i++) {
+            columns[i].padTo(size);
+        }
+    }
+
+    private Column find(byte[] key, int offset, int length) {
+        if (expected < count && columns[expected].matches(key, offset, length)) {
+            return columns[expected++];
+        }
+        int hash = StringCache.hash(key, offset, length);
+        int mask = table.length - 1;
+        for (int i = hash & mask; table[i] != null; i = (i + 1) & mask) {
+            Column column = table[i];
+            if (column.hash == hash && column.matches(key, offset, length)) {
+                expected = column.index + 1;
+                return column;
+            }
+        }
+        Column column = add(Arrays.copyOfRange(key, offset, offset + length), hash, null);
+        expected = count;
+        return column;
+    }
+
+    private Column add(byte[] key, int hash, LtsvSchema.Type type) {
+        Column column = new Column(count, key, hash, new String(key, charset), type, charset);
+        if (count == columns.length) {
+            columns = Arrays.copyOf(columns, count << 1);
+        }
+        columns[count++] = column;
+        if (count * 2 > table.length) {
+            table = new Column[table.length << 1];
+            for (int i = 0; i < count; i++) {
+                insert(columns[i]);
+            }
+        }
+        else {
+            insert(column);
+        }
+        return column;
+    }
+
+    private void insert(Column column) {
+        int mask = table.length - 1;
+        int i = column.hash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = column;
+    }
+
+    /**
+     * Values of a single key, a row per parsed line
+     */
+    public static final class Column {
+
+        private final int index;
+
+        private final byte[] keyBytes;
+
+        private final int hash;
+
+        private final String key;
+
+        private final LtsvSchema.Type type;
+
+        private final Charset charset;
+
+        private byte[] arena;
+
+        private int arenaSize;
+
+        /**
+         * Start of every row value in the arena, the end of the last row included
+         */
+        private int[] offsets;
+
+        private long[] values;
+
+        private long[] validity = new long[1];
+
+        /**
+         * Number of rows written, including null rows
+         */
+        private int rows;
+
+        private Column(int index, byte[] keyBytes, int hash, String key, LtsvSchema.Type type, Charset charset) {
+            this.index = index;
+            this.keyBytes = keyBytes;
+            this.hash = hash;
+            this.key = key;
+            this.type = type;
+            this.charset = charset;
+            if (type == null) {
+                this.arena = new byte[256];
+                this.offsets = new int[65];
+            }
+            else {
+                this.values = new long[64];
+            }
+        }
+
+        /**
+         * @return a key of this column
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * @return a type declared in the parser schema, or <b>null</b> if this column holds raw values
+         */
+        public LtsvSchema.Type type() {
+            return type;
+        }
+
+        /**
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return <b>true</b> if a line had no value for this key
+         */
+        public boolean isNull(int row) {
+            checkRow(row);
+            return (validity[row >>> 6] & 1L << row) == 0;
+        }
+
+        /**
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return decoded value or <b>null</b>
+         * @throws IllegalArgumentException if this is a typed column
+         */
+        public String getString(int row) {
+            checkType(null);
+            return isNull(row) ? null : new String(arena, offsets[row], offsets[row + 1] - offsets[row], charset);
+        }
+
+        /**
+         * Returns a value of a column of type {@link LtsvSchema.Type#INT} or {@link LtsvSchema.Type#IPV4}
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return decoded value
+         * @throws NumberFormatException if a row is null
+         */
+        public int getInt(int row) {
+            if (type != LtsvSchema.Type.IPV4) {
+                checkType(LtsvSchema.Type.INT);
+            }
+            return (int) slot(row);
+        }
+
+        /**
+         * Returns a value of a column of type {@link LtsvSchema.Type#LONG} or {@link LtsvSchema.Type#EPOCH_MILLIS}
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return decoded value
+         * @throws NumberFormatException if a row is null
+         */
+        public long getLong(int row) {
+            if (type != LtsvSchema.Type.EPOCH_MILLIS) {
+                checkType(LtsvSchema.Type.LONG);
+            }
+            return slot(row);
+        }
+
+        /**
+         * Returns a value of a column of type {@link LtsvSchema.Type#DOUBLE}
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return decoded value
+         * @throws NumberFormatException if a row is null
+         */
+        public double getDouble(int row) {
+            checkType(LtsvSchema.Type.DOUBLE);
+            return Double.longBitsToDouble(slot(row));
+        }
+
+        /**
+         * Returns the array holding raw values of all rows of this column. The array is reused and may be replaced
+         * by a larger one when columns are filled again
+         * @return the arena of a column holding raw values
+         * @throws IllegalArgumentException if this is a typed column
+         */
+        public byte[] arena() {
+            checkType(null);
+            return arena;
+        }
+
+        /**
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return start of value bytes in the {@link #arena()}
+         */
+        public int offset(int row) {
+            checkType(null);
+            checkRow(row);
+            return offsets[row];
+        }
+
+        /**
+         * @param row row index from 0 to {@link LtsvColumns#size()} exclusive
+         * @return length of value bytes, 0 for a null
+         */
+        public int length(int row) {
+            checkType(null);
+            checkRow(row);
+            return offsets[row + 1] - offsets[row];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return type == null ? key : key + ':' + type;
+        }
+
+        private boolean matches(byte[] data, int offset, int length) {
+            if (keyBytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (keyBytes[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void setBytes(int row, byte[] data, int offset, int length) {
+            start(row);
+            if (arenaSize + length > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length << 1, arenaSize + length));
+            }
+            System.arraycopy(data, offset, arena, arenaSize, length);
+            arenaSize += length;
+            offsets[row + 1] = arenaSize;
+            validity[row >>> 6] |= 1L << row;
+        }
+
+        private void setNull(int row) {
+            start(row);
+            offsets[row + 1] = arenaSize;
+            validity[row >>> 6] &= ~(1L << row);
+        }
+
+        private void setLong(int row, long value) {
+            start(row);
+            values[row] = value;
+            validity[row >>> 6] |= 1L << row;
+        }
+
+        /**
+         * Prepares to write a row, dropping a value already written to it by a duplicate key
+         */
+        private void start(int row) {
+            if (rows == row + 1) {
+                rows = row;
+                if (type == null) {
+                    arenaSize = offsets[row];
+                }
+            }
+            padTo(row);
+            rows = row + 1;
+            ensureCapacity(rows);
+        }
+
+        /**
+         * Writes nulls up to a given row exclusive
+         */
+        private void padTo(int row) {
+            ensureCapacity(row);
+            for (; rows < row; rows++) {
+                if (type == null) {
+                    offsets[rows + 1] = arenaSize;
+                }
+                else {
+                    values[rows] = 0;
+                }
+                validity[rows >>> 6] &= ~(1L << rows);
+            }
+        }
+
+        private void ensureCapacity(int rows) {
+            if (rows > validity.length << 6) {
+                validity = Arrays.copyOf(validity, Math.max(validity.length << 1, (rows + 63) >>> 6));
+            }
+            if (type == null) {
+                if (rows >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, Math.max(offsets.length << 1, rows + 1));
+                }
+            }
+            else
+            if (rows > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length << 1, rows));
+            }
+        }
+
+        private void clear() {
+            rows = 0;
+            arenaSize = 0;
+        }
+
+        private long slot(int row) {
+            if (isNull(row)) {
+                throw new NumberFormatException(String.format("No value for key [%s] at row [%d]", key, row));
+            }
+            return values[row];
+        }
+
+        private void checkType(LtsvSchema.Type expected) {
+            if (type != expected) {
+                throw new IllegalArgumentException(expected == null
+                        ? String.format("Column [%s] holds decoded values", this)
+                        : String.format("Column [%s] is not of type %s", this, expected));
+            }
+        }
+
+        private void checkRow(int row) {
+            if (row < 0 || row >= rows) {
+                throw new IndexOutOfBoundsException(String.format("Index [%d] is out of column bounds [%d]", row, rows));
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.lolo.ltsv;
+
+/**
+ * Receives lines a parser could not parse, so they can be quarantined and reprocessed instead of failing the whole
+ * input <br>
+ * A handler is called on the thread iterating over rows, before any row following the line is returned. A parallel
+ * stream of a file or a string calls it on every thread parsing a range, so there it has to be thread-safe.
+ */
+@FunctionalInterface
+public interface LtsvDeadLetterHandler {
+
+    /**
+     * Called for every line that failed to parse
+     * @param line raw bytes of the line without its line ending, in the charset the parser scans
+     * @param lineNum zero-based line number
+     * @param position offset of the line start from the beginning of the input, in characters for
+     * {@link LtsvParser#parse(CharSequence)}
+     * @param error the error the line failed with
+     */
+    void reject(byte[] line, int lineNum, long position, ParseLtsvException error);
+}
@@ -0,0 +1,28 @@
+package com.github.lolo.ltsv;
+
+/**
+ * Kinds of malformed input. In strict mode each of them fails parsing, while in lenient mode the parser recovers and
+ * goes on with the line, treating an invalid typed value as missing
+ */
+public enum LtsvError {
+    /**
+     * A value without a key, like <b>:vvv</b>
+     */
+    EMPTY_KEY,
+    /**
+     * A key followed by an entry delimiter instead of a key-value delimiter, like <b>kkk_kkk:vvv</b>
+     */
+    KEY_WITHOUT_VALUE,
+    /**
+     * A quote character inside a key or right after an entry delimiter
+     */
+    UNEXPECTED_QUOTE,
+    /**
+     * An escape character inside a key or right after an entry delimiter
+     */
+    UNEXPECTED_ESCAPE,
+    /**
+     * A value of a schema field or a bound property that does not match its type
+     */
+    INVALID_VALUE
+}
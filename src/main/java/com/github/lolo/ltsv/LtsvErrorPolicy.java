@@ -0,0 +1,23 @@
+package com.github.lolo.ltsv;
+
+/**
+ * What a parser does with a line it can not parse, like a malformed line in strict mode or a typed value that can not
+ * be decoded <br>
+ * Either way the parser resynchronizes at the next line ending, so an iterator stays usable after a failed line.
+ */
+public enum LtsvErrorPolicy {
+    /**
+     * Throws {@link ParseLtsvException} out of the iterator. Parsing may go on with the next line if the exception is
+     * caught
+     */
+    FAIL,
+    /**
+     * Drops the line and goes on with the next one
+     */
+    SKIP_LINE,
+    /**
+     * Passes the raw line to a {@link LtsvDeadLetterHandler} and goes on with the next one, set by
+     * {@link LtsvParser.Builder#withDeadLetterHandler(LtsvDeadLetterHandler)}
+     */
+    DEAD_LETTER
+}
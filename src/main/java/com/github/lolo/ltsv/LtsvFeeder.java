@@ -0,0 +1,99 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * An incremental parser that is pushed data instead of pulling it from a stream, for event loops and asynchronous
+ * channels that must not block on reading <br>
+ * Fed bytes are appended to a window, and every line completed by them is parsed and passed to a consumer right
+ * away. A line that is not complete yet is parsed up to the end of fed data, and the parser state is kept until the
+ * next buffer arrives, so keys, values, quotes and escapes may be split between buffers at any byte. A feeder is
+ * not thread-safe, but it may be fed by different threads one after another, like callbacks of an asynchronous read.
+ * <pre>
+ *     LtsvFeeder feeder = parser.feeder(record -&gt; handle(record.toMap()));
+ *     feeder.feed(buffer);
+ *     ...
+ *     feeder.endOfInput();
+ * </pre>
+ */
+public final class LtsvFeeder {
+
+    private final InputBuffer data;
+
+    private final ParseCursor cursor;
+
+    private final Consumer<LtsvRecord> sink;
+
+    private int line = 0;
+
+    LtsvFeeder(LtsvParser parser, Consumer<LtsvRecord> sink) {
+        this.data = InputBuffer.feed(parser.bufferSize);
+        this.cursor = new ParseCursor(parser, data);
+        this.sink = sink;
+    }
+
+    /**
+     * Parses all remaining bytes of a buffer, which is drained. The buffer is not kept, so it may be reused as soon as
+     * the call returns. If a line fails with {@link LtsvErrorPolicy#FAIL} policy, lines after it are parsed by the
+     * next call
+     * @param buffer next bytes of the input
+     * @throws IllegalStateException if the input is already ended
+     */
+    public void feed(ByteBuffer buffer) {
+        if (!data.feeding) {
+            throw new IllegalStateException("Input is already ended");
+        }
+        data.push(buffer);
+        drain();
+    }
+
+    /**
+     * Parses a part of an array
+     * @param bytes next bytes of the input
+     * @param offset first byte to parse
+     * @param length number of bytes to parse
+     * @throws IllegalStateException if the input is already ended
+     * @see #feed(ByteBuffer)
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Ends the input: the last line is complete even without a line ending. Calling it again does nothing
+     */
+    public void endOfInput() {
+        data.feeding = false;
+        drain();
+    }
+
+    /**
+     * Parses lines while there is data, until a line runs out of it
+     */
+    private void drain() {
+        try {
+            while (data.position < data.limit || !data.feeding && cursor.suspended()) {
+                LtsvRecord record;
+                try {
+                    record = cursor.next(line);
+                }
+                finally {
+                    if (!cursor.suspended()) {
+                        line++;
+                    }
+                }
+                if (cursor.suspended()) {
+                    return;
+                }
+                if (record != null) {
+                    sink.accept(record);
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+}
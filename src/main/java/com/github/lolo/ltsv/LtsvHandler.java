@@ -0,0 +1,32 @@
+package com.github.lolo.ltsv;
+
+/**
+ * Receives parsed lines as events instead of maps <br>
+ * Keys and values are passed as raw bytes in the parser input, so nothing is decoded or allocated unless a handler
+ * does it. Arrays passed to {@link #field(byte[], int, int, byte[], int, int)} are owned by the parser and are only
+ * valid during the call: copy the bytes to keep them.
+ */
+public interface LtsvHandler {
+
+    /**
+     * Called before the fields of a line
+     * @param line zero-based line number
+     */
+    default void startRecord(int line) {}
+
+    /**
+     * Called for every entry of a line in the order of appearance, duplicate keys included
+     * @param key array holding key bytes or <b>null</b> for a value without a key (lenient mode only)
+     * @param keyOffset key start
+     * @param keyLength key length, 0 for a value without a key
+     * @param value array holding value bytes or <b>null</b> for an empty value
+     * @param valueOffset value start
+     * @param valueLength value length, 0 for an empty value
+     */
+    void field(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength);
+
+    /**
+     * Called after the last field of a line
+     */
+    default void endRecord() {}
+}
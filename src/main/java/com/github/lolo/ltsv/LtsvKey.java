@@ -0,0 +1,20 @@
+package com.github.lolo.ltsv;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets a key a field is bound to by {@link LtsvParser#bind(Class)}. Without it a field is bound to a key equal to
+ * the field name
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface LtsvKey {
+
+    /**
+     * @return a key to bind a field to
+     */
+    String value();
+}
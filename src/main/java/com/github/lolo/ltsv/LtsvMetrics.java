@@ -0,0 +1,288 @@
+package com.github.lolo.ltsv;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of parsed input, malformed lines and parsing time, filled by parsers configured with
+ * {@link LtsvParser.Builder#withMetrics(LtsvMetrics)} <br>
+ * Counters are striped adders, so threads parsing with the same parser, or with several parsers sharing metrics, do
+ * not contend on them. Counters are updated once per line, and a parser without metrics does not check the clock
+ * at all. Readings are not an atomic snapshot while parsing goes on.
+ * <pre>
+ *     LtsvMetrics metrics = new LtsvMetrics();
+ *     LtsvParser parser = LtsvParser.builder().withMetrics(metrics).build();
+ *     ...
+ *     long p99 = metrics.latency().valueAtPercentile(99.0);
+ * </pre>
+ */
+public final class LtsvMetrics {
+
+    private static final LtsvError[] ERRORS = LtsvError.values();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder lines = new LongAdder();
+
+    private final LongAdder fields = new LongAdder();
+
+    private final LongAdder[] errors = adders(ERRORS.length);
+
+    private final LongAdder[] recoveries = adders(ERRORS.length);
+
+    private final Histogram latency = new Histogram();
+
+    /**
+     * @return bytes of all parsed lines, line endings included. Characters are counted for
+     * {@link LtsvParser#parse(CharSequence)}
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return number of parsed lines
+     */
+    public long lines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return number of entries of all parsed lines
+     */
+    public long fields() {
+        return fields.sum();
+    }
+
+    /**
+     * @param error kind of malformed input
+     * @return number of times parsing failed because of a given error in strict mode
+     */
+    public long errors(LtsvError error) {
+        return errors[error.ordinal()].sum();
+    }
+
+    /**
+     * @return number of times parsing failed because of malformed input in strict mode
+     */
+    public long errors() {
+        return sum(errors);
+    }
+
+    /**
+     * @param error kind of malformed input
+     * @return number of times a lenient parser recovered from a given error
+     */
+    public long recoveries(LtsvError error) {
+        return recoveries[error.ordinal()].sum();
+    }
+
+    /**
+     * @return number of times a lenient parser recovered from malformed input
+     */
+    public long recoveries() {
+        return sum(recoveries);
+    }
+
+    /**
+     * @return distribution of time spent parsing a single line in nanoseconds, lines failed in strict mode excluded
+     */
+    public Histogram latency() {
+        return latency;
+    }
+
+    /**
+     * Resets all counters
+     */
+    public void reset() {
+        bytes.reset();
+        lines.reset();
+        fields.reset();
+        for (int i = 0; i < ERRORS.length; i++) {
+            errors[i].reset();
+            recoveries[i].reset();
+        }
+        latency.reset();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("lines=%d bytes=%d fields=%d errors=%d recoveries=%d latency=[%s]",
+                lines(), bytes(), fields(), errors(), recoveries(), latency);
+    }
+
+    void line(long bytes, int fields, long nanos) {
+        this.bytes.add(bytes);
+        this.lines.increment();
+        this.fields.add(fields);
+        latency.record(nanos);
+    }
+
+    /**
+     * Adds all counts of other metrics, like those of a chunk parsed ahead once it is known to be consumed
+     */
+    void add(LtsvMetrics other) {
+        bytes.add(other.bytes.sum());
+        lines.add(other.lines.sum());
+        fields.add(other.fields.sum());
+        for (int i = 0; i < ERRORS.length; i++) {
+            errors[i].add(other.errors[i].sum());
+            recoveries[i].add(other.recoveries[i].sum());
+        }
+        latency.add(other.latency);
+    }
+
+    void error(LtsvError error) {
+        errors[error.ordinal()].increment();
+    }
+
+    void recovery(LtsvError error) {
+        recoveries[error.ordinal()].increment();
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] result = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    private static long sum(LongAdder[] adders) {
+        long result = 0;
+        for (LongAdder adder : adders) {
+            result += adder.sum();
+        }
+        return result;
+    }
+
+    /**
+     * A histogram of non-negative values with a bounded relative error, like HdrHistogram <br>
+     * Values below 16 are counted exactly, larger values fall into 16 linear buckets per power of two, so a bucket is
+     * at most 1/16 of its values wide. Values above about 36 minutes in nanoseconds are counted as the largest one.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BITS = 4;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private static final int MAX_EXPONENT = 40;
+
+        private final LongAdder[] buckets = adders((MAX_EXPONENT - SUB_BITS + 2) << SUB_BITS);
+
+        private final LongAdder total = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {}
+
+        /**
+         * @return number of recorded values
+         */
+        public long count() {
+            long result = 0;
+            for (LongAdder bucket : buckets) {
+                result += bucket.sum();
+            }
+            return result;
+        }
+
+        /**
+         * @return the largest recorded value, 0 if there are none
+         */
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * @return mean of recorded values, 0 if there are none
+         */
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) total.sum() / count;
+        }
+
+        /**
+         * Returns a value that a given percent of recorded values do not exceed, within bucket precision
+         * @param percentile a percent from 0 to 100
+         * @return the upper bound of the bucket holding the percentile, 0 if there are no values
+         */
+        public long valueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max());
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+                    count(), mean(), valueAtPercentile(50), valueAtPercentile(99), max());
+        }
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets[index(value)].increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        private void add(Histogram other) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i].add(other.buckets[i].sum());
+            }
+            total.add(other.total.sum());
+            max.accumulate(other.max());
+        }
+
+        private void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            total.reset();
+            max.reset();
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+            if (exponent == MAX_EXPONENT) {
+                value = Math.min(value, (2L << MAX_EXPONENT) - 1);
+            }
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = (index >>> SUB_BITS) + SUB_BITS - 1;
+            long sub = index & (SUB_BUCKETS - 1);
+            return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
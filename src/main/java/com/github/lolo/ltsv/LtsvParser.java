@@ -1,39 +1,127 @@
 package com.github.lolo.ltsv;
 
-import java.io.*;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable LTSV parser <br>
+ * All state of a parse lives in the iterator it returns, so a single configured instance may be shared between any
+ * number of threads without synchronization. Iterators themselves are not thread-safe.
+ */
+public class LtsvParser {
 
-import static com.github.lolo.ltsv.ParseMode.*;
+    final int entryDelimiter;
 
-public class LtsvParser {
+    final int kvDelimiter;
+
+    final int escapeChar;
+
+    final int quoteChar;
+
+    final int lineEnding;
 
-    private int entryDelimiter = '\t';
+    final boolean strict;
 
-    private int kvDelimiter = ':';
+    final boolean skipNullValues;
+
+    final boolean trimKeys;
+
+    final boolean trimValues;
+
+    /**
+     * The line state machine for the configured delimiters and mode
+     */
+    final Transitions transitions;
 
-    private int escapeChar = '\\';
+    final int bufferSize;
 
-    private int quoteChar = '\"';
+    final int maxRetainedBufferSize;
 
-    private int lineEnding = '\n';
+    final int chunkSize;
 
-    private boolean strict = true;
+    final int batchSize;
+
+    final KeySet projection;
+
+    final LtsvSchema schema;
+
+    final KeySet schemaKeys;
+
+    /**
+     * Charset of scanned bytes: the configured one, or UTF-8 if input is transcoded
+     */
+    final Charset charset;
+
+    /**
+     * Configured charset if input is transcoded to UTF-8 before scanning, otherwise <b>null</b>
+     */
+    private final Charset transcodedCharset;
 
-    private boolean skipNullValues = false;
+    final FieldDecoder decoder;
 
-    private boolean trimKeys = false;
+    /**
+     * Metrics to fill, <b>null</b> if they are not collected
+     */
+    final LtsvMetrics metrics;
 
-    private boolean trimValues = false;
+    final LtsvErrorPolicy errorPolicy;
 
-    private LinkedList<ParseMode> mode = new LinkedList<>();
+    /**
+     * If <b>true</b>, errors of malformed input capture a stack trace
+     */
+    final boolean stackTraces;
 
-    private LtsvParser() {}
+    /**
+     * Handler of rejected lines, <b>null</b> unless the policy is {@link LtsvErrorPolicy#DEAD_LETTER}
+     */
+    final LtsvDeadLetterHandler deadLetterHandler;
+
+    private LtsvParser(Builder builder) {
+        this.entryDelimiter = builder.entryDelimiter;
+        this.kvDelimiter = builder.kvDelimiter;
+        this.escapeChar = builder.escapeChar;
+        this.quoteChar = builder.quoteChar;
+        this.lineEnding = builder.lineEnding;
+        this.strict = builder.strict;
+        this.skipNullValues = builder.skipNullValues;
+        this.trimKeys = builder.trimKeys;
+        this.trimValues = builder.trimValues;
+        this.transitions = new Transitions(entryDelimiter, kvDelimiter, escapeChar, quoteChar, lineEnding, strict);
+        this.bufferSize = builder.bufferSize;
+        this.maxRetainedBufferSize = builder.maxRetainedBufferSize;
+        this.chunkSize = builder.chunkSize;
+        this.batchSize = builder.batchSize;
+        this.charset = isScannable(builder.charset) ? builder.charset : StandardCharsets.UTF_8;
+        this.transcodedCharset = charset == builder.charset ? null : builder.charset;
+        this.projection = builder.selectedKeys == null ? null : keySet(builder.selectedKeys);
+        this.schema = builder.schema;
+        this.schemaKeys = schema == null ? null : keySet(schema.keys());
+        StringCache keyCache = builder.keyCacheCapacity == 0 ? null : new StringCache(builder.keyCacheCapacity);
+        ValueCache valueCache = null;
+        if (builder.valueCacheCapacity != 0) {
+            KeySet admitted = builder.cachedKeys.length == 0 ? null : keySet(builder.cachedKeys);
+            valueCache = new ValueCache(new StringCache(builder.valueCacheCapacity), admitted);
+        }
+        this.decoder = new FieldDecoder(charset, keyCache, valueCache);
+        this.metrics = builder.metrics;
+        this.errorPolicy = builder.errorPolicy;
+        this.deadLetterHandler = builder.deadLetterHandler;
+        // dropped lines never reach the caller, so their traces would only slow down junk input
+        this.stackTraces = builder.stackTraces && errorPolicy == LtsvErrorPolicy.FAIL;
+    }
 
     /**
      * Creates a new builder for a parser with default configuration <br>
@@ -43,8 +131,20 @@ public class LtsvParser {
      *     <li>escapeChar = '\\'</li>
      *     <li>quoteChar = '\"'</li>
      *     <li>lineEnding = '\n'</li>
+     *     <li>charset = UTF-8</li>
      *     <li>strict = true</li>
      *     <li>skipNullValues = false</li>
+     *     <li>bufferSize = 65536</li>
+     *     <li>maxRetainedBufferSize = 1048576</li>
+     *     <li>chunkSize = 1048576</li>
+     *     <li>batchSize = 1024</li>
+     *     <li>all keys are selected</li>
+     *     <li>keys are not interned</li>
+     *     <li>values are not cached</li>
+     *     <li>no schema</li>
+     *     <li>no metrics</li>
+     *     <li>errorPolicy = FAIL</li>
+     *     <li>errors capture stack traces</li>
      * </ul>
      * ready to parse regular LTSV format <br>
      * <pre>
@@ -54,7 +154,7 @@ public class LtsvParser {
      * @return a new builder
      */
     public static Builder builder() {
-        return new LtsvParser().new Builder();
+        return new Builder();
     }
 
     /**
@@ -65,7 +165,23 @@ public class LtsvParser {
      * it will be populated with extracted values
      */
     public Iterator<Map<String, String>> parse(String data, Charset charset) {
-        return parse(new ByteArrayInputStream(data.getBytes(charset)));
+        return newMapIterator(InputBuffer.wrap(bytes(data, charset)));
+    }
+
+    /**
+     * Parses a given string or other character sequence directly as characters <br>
+     * Unlike {@link #parse(String, Charset)}, the string is not encoded to bytes to be decoded back, keys and values
+     * are copied out of it as substrings. Positions in error messages are counted in characters. If a schema is set,
+     * the string is parsed as bytes, so its values are checked the same way
+     * @param data a string to parse, which must not be modified until parsing is done
+     * @return iterator containing a new HashMap for each row. If a row is empty, method returns empty Map, otherwise
+     * it will be populated with extracted values
+     */
+    public Iterator<Map<String, String>> parse(CharSequence data) {
+        if (schema != null) {
+            return newMapIterator(InputBuffer.wrap(data.toString().getBytes(charset)));
+        }
+        return new CharCursor(this, data);
     }
 
     /**
@@ -75,265 +191,448 @@ public class LtsvParser {
      * it will be populated with extracted values
      */
     public Iterator<Map<String, String>> parse(InputStream data) {
-        return LineIterator.newIterator(data, this::parseLine);
-    }
-
-    private void putEntry(Map<String, String> result, ByteArrayOutputStream key, ByteArrayOutputStream value, int lineNum, int position) {
-        if (key.size() > 0) {
-            if (value.size() == 0) {
-                if (!skipNullValues) {
-                    if (trimKeys) {
-                        result.put(new String(key.toByteArray(), StandardCharsets.UTF_8).trim(), null);
-                    }
-                    else {
-                        result.put(new String(key.toByteArray(), StandardCharsets.UTF_8), null);
-                    }
-                }
-            }
-            else {
-                if (trimKeys && trimValues) {
-                    result.put(new String(key.toByteArray(), StandardCharsets.UTF_8).trim(), new String(value.toByteArray(), StandardCharsets.UTF_8).trim());
-                }
-                else
-                if (trimKeys && !trimValues) {
-                    result.put(new String(key.toByteArray(), StandardCharsets.UTF_8).trim(), new String(value.toByteArray(), StandardCharsets.UTF_8));
-                }
-                else
-                if (!trimKeys && trimValues) {
-                    result.put(new String(key.toByteArray(), StandardCharsets.UTF_8), new String(value.toByteArray(), StandardCharsets.UTF_8).trim());
-                }
-                else {
-                    result.put(new String(key.toByteArray(), StandardCharsets.UTF_8), new String(value.toByteArray(), StandardCharsets.UTF_8));
+        return newMapIterator(InputBuffer.of(input(data), bufferSize, maxRetainedBufferSize));
+    }
+
+    /**
+     * Parses a given input stream to the end and passes every line to a handler as events <br>
+     * No maps or strings are created, the handler gets raw key and value bytes and decodes only what it needs
+     * @param data a stream to parse
+     * @param handler a handler to receive lines
+     */
+    public void parse(InputStream data, LtsvHandler handler) {
+        ParseCursor cursor = new ParseCursor(this, InputBuffer.of(input(data), bufferSize, maxRetainedBufferSize));
+        try {
+            for (int line = 0; cursor.data().hasRemaining(); line++) {
+                LtsvRecord record = cursor.next(line);
+                if (record != null) {
+                    record.emit(handler);
                 }
             }
+            cursor.data().release();
         }
-        else {
-            if (value.size() > 0) {
-                if (strict) {
-                    throw new ParseLtsvException(String.format("Empty key detected at line [%d] position [%d]", lineNum, position));
-                }
-                else {
-                    if (trimValues) {
-                        result.put(null, new String(value.toByteArray(), StandardCharsets.UTF_8).trim());
-                    }
-                    else {
-                        result.put(null, new String(value.toByteArray(), StandardCharsets.UTF_8));
-                    }
-                }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    /**
+     * Parses up to a given number of lines of an input stream into a reusable batch <br>
+     * The batch is emptied and refilled, so nothing is allocated per line once its buffers have grown to fit the
+     * largest batch. Consecutive calls with the same batch and the same input continue where the previous call
+     * stopped, line numbers are counted from the start of the input
+     * @param data a stream to parse
+     * @param batch a batch to fill
+     * @param maxRecords maximum number of lines to parse
+     * @return number of lines in the batch, 0 if the stream is over
+     */
+    public int parseBatch(InputStream data, RecordBatch batch, int maxRecords) {
+        if (maxRecords <= 0) {
+            throw new IllegalArgumentException("Max records must be positive");
+        }
+        batch.reset(this, data);
+        fill(batch.input, batch::append, maxRecords);
+        return batch.size();
+    }
+
+    /**
+     * Parses up to a given number of lines of an input stream into reusable columns, one column per key <br>
+     * Values are appended to columns as lines are parsed, without creating rows. Keys declared in the schema get typed
+     * columns. Consecutive calls with the same columns and the same input continue where the previous call stopped,
+     * and keep columns of keys seen before, so all batches of an input share the same columns
+     * @param data a stream to parse
+     * @param columns columns to fill
+     * @param maxRecords maximum number of lines to parse
+     * @return number of rows in the columns, 0 if the stream is over
+     */
+    public int parseBatch(InputStream data, LtsvColumns columns, int maxRecords) {
+        if (maxRecords <= 0) {
+            throw new IllegalArgumentException("Max records must be positive");
+        }
+        columns.reset(this, data);
+        fill(columns.input, columns::append, maxRecords);
+        columns.finish();
+        return columns.size();
+    }
+
+    /**
+     * Parses a given input stream in tail mode: when the stream reports the end of data, it is polled for more data
+     * instead, so a file being appended can be followed like with <i>tail -f</i>. A line is returned only when it is
+     * complete. Iteration ends when the consuming thread is interrupted
+     * @param data a stream to parse
+     * @param pollInterval time to wait before reading again after the end of data
+     * @param unit unit of <b>pollInterval</b>
+     * @return iterator containing a new HashMap for each row, its hasNext() blocks until the next row arrives
+     */
+    public Iterator<Map<String, String>> tail(InputStream data, long pollInterval, TimeUnit unit) {
+        if (pollInterval <= 0) {
+            throw new IllegalArgumentException("Poll interval must be positive");
+        }
+        return newMapIterator(InputBuffer.tail(input(data, true), bufferSize, unit.toNanos(pollInterval)));
+    }
+
+    /**
+     * Parses a given file to the end, memory-mapping it instead of reading <br>
+     * The state machine runs directly over mapped file regions, so bytes are not copied until a field is decoded.
+     * Files larger than 2 GB are mapped in windows
+     * @param path a file to parse
+     * @return iterator containing a new HashMap for each row. If a row is empty, method returns empty Map, otherwise
+     * it will be populated with extracted values
+     */
+    public Iterator<Map<String, String>> parse(Path path) {
+        return newMapIterator(map(path));
+    }
+
+    /**
+     * Parses a given file channel from its current position to its current size, memory-mapping it instead of
+     * reading. The channel is not closed and must stay open until parsing is done
+     * @param channel a file channel to parse
+     * @return iterator containing a new HashMap for each row. If a row is empty, method returns empty Map, otherwise
+     * it will be populated with extracted values
+     * @see #parse(Path)
+     */
+    public Iterator<Map<String, String>> parse(FileChannel channel) {
+        return newMapIterator(map(channel));
+    }
+
+    /**
+     * Parses a given string without materializing rows into maps
+     * @param data a string to parse
+     * @param charset character encoding to extract raw bytes correctly
+     * @return iterator returning the same {@link LtsvRecord} view for each row, refilled on every call to next()
+     */
+    public Iterator<LtsvRecord> parseRecords(String data, Charset charset) {
+        return newRecordIterator(InputBuffer.wrap(bytes(data, charset)));
+    }
+
+    /**
+     * Parses a given input stream to the end without materializing rows into maps <br>
+     * The last record stays valid after hasNext() returns <b>false</b>. Its read window is handed over for reuse by
+     * the next stream of this thread only on the following call to hasNext(), see
+     * {@link Builder#withMaxRetainedBufferSize(int)}
+     * @param data a stream to parse
+     * @return iterator returning the same {@link LtsvRecord} view for each row, refilled on every call to next()
+     */
+    public Iterator<LtsvRecord> parseRecords(InputStream data) {
+        return newRecordIterator(InputBuffer.of(input(data), bufferSize, maxRetainedBufferSize));
+    }
+
+    /**
+     * Parses a given file to the end without materializing rows into maps, memory-mapping it instead of reading
+     * @param path a file to parse
+     * @return iterator returning the same {@link LtsvRecord} view for each row, refilled on every call to next()
+     * @see #parse(Path)
+     */
+    public Iterator<LtsvRecord> parseRecords(Path path) {
+        return newRecordIterator(map(path));
+    }
+
+    /**
+     * Parses a given file channel from its current position to its current size without materializing rows into
+     * maps, memory-mapping it instead of reading. The channel is not closed and must stay open until parsing is done
+     * @param channel a file channel to parse
+     * @return iterator returning the same {@link LtsvRecord} view for each row, refilled on every call to next()
+     * @see #parse(Path)
+     */
+    public Iterator<LtsvRecord> parseRecords(FileChannel channel) {
+        return newRecordIterator(map(channel));
+    }
+
+    /**
+     * Parses a given string into a stream <br>
+     * A parallel stream splits the string into byte ranges cut at line endings, and every range is parsed by the
+     * thread processing it. Ranges shorter than <b>chunkSize</b> are not split
+     * @param data a string to parse
+     * @param charset character encoding to extract raw bytes correctly
+     * @return ordered stream containing a new HashMap for each row
+     * @see #stream(InputStream)
+     */
+    public Stream<Map<String, String>> stream(String data, Charset charset) {
+        return StreamSupport.stream(RangeSpliterator.of(this, bytes(data, charset)), false);
+    }
+
+    /**
+     * Parses a given input stream to the end into a stream <br>
+     * Rows are parsed lazily as the stream is consumed. A parallel stream parses batches of rows ahead and hands
+     * them over to other threads, batches grow by <b>batchSize</b> rows. Closing the returned stream closes the
+     * input stream
+     * @param data a stream to parse
+     * @return ordered stream containing a new HashMap for each row
+     */
+    public Stream<Map<String, String>> stream(InputStream data) {
+        InputBuffer buffer = InputBuffer.of(input(data), bufferSize, maxRetainedBufferSize);
+        return newStream(buffer).onClose(() -> {
+            buffer.release();
+            try {
+                data.close();
             }
+            catch (IOException ex) {
+                throw new ParseLtsvException("Error closing data source", ex);
+            }
+        });
+    }
+
+    /**
+     * Parses a given file to the end into a stream, memory-mapping it instead of reading <br>
+     * A parallel stream splits the file into byte ranges cut at line endings, and every range is parsed by the
+     * thread processing it. Ranges shorter than <b>chunkSize</b> are not split
+     * @param path a file to parse
+     * @return ordered stream containing a new HashMap for each row
+     * @see #stream(InputStream)
+     * @see #parse(Path)
+     */
+    public Stream<Map<String, String>> stream(Path path) {
+        checkMappable();
+        try {
+            return StreamSupport.stream(RangeSpliterator.of(this, path), false);
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
         }
-        key.reset();
-        value.reset();
     }
 
     /**
-     * From now on in comments:
-     * <ul>
-     *     <li>key = kkk</li>
-     *     <li>value = vvv</li>
-     *     <li>entryDelimiter = _</li>
-     *     <li>kvDelimiter = :</li>
-     *     <li>escapeChar = \</li>
-     *     <li>quoteChar = "</li>
-     *     <li>lineEnding = n</li>
-     * </ul>
+     * Parses a given file in chunks on the common fork/join pool
+     * @param path a file to parse
+     * @return iterator containing a new HashMap for each row in file order
+     * @see #parallelParse(Path, ForkJoinPool)
      */
-    private Map<String, String> parseLine(InputStream data, int lineNum) throws IOException {
-        mode.push(KEY);
-        ByteArrayOutputStream key = new ByteArrayOutputStream(1024);
-        ByteArrayOutputStream value = new ByteArrayOutputStream(1024);
-        Map<String, String> result = new HashMap<>();
-        int position = 0;
-        while (data.available() > 0 && mode.peek() != EOL) {
-            int c = data.read();
-            position++;
-            switch (mode.peek()) {
-                case KEY: {
-                    // kkk:vvvn
-                    //        ^
-                    if (c == lineEnding) {
-                        mode.pop();
-                        mode.push(EOL);
-                        break;
-                    }
-                    // kkk_kkk:vvv
-                    //    ^
-                    if (c == entryDelimiter) {
-                        if (strict) {
-                            throw new ParseLtsvException(String.format("Key without a value at line [%d] position [%d]", lineNum, position));
-                        }
-                        key.write(c);
-                        continue;
-                    }
-                    // k"kk:vvv
-                    //  ^
-                    if (c == quoteChar) {
-                        if (strict) {
-                            throw new ParseLtsvException(String.format("Unexpected quote token [%c] at line [%d] position [%d]", c, lineNum, position));
-                        }
-                        key.write(c);
-                        continue;
-                    }
-                    // k\kk:vvv
-                    //  ^
-                    if (c == escapeChar) {
-                        if (strict) {
-                            throw new ParseLtsvException(String.format("Unexpected escape token [%c] at line [%d] position [%d]", c, lineNum, position));
-                        }
-                        mode.push(ESCAPED);
-                        continue;
-                    }
-                    // kkk:vvv
-                    //    ^
-                    if (c == kvDelimiter) {
-                        if (key.size() == 0 && strict) {
-                            throw new ParseLtsvException(String.format("Empty key detected at line [%d] position [%d]", lineNum, position));
-                        }
-                        mode.pop();
-                        mode.push(VALUE);
-                        continue;
-                    }
-                    // kkk:vvv
-                    //  ^
-                    else {
-                        key.write(c);
-                    }
-                    break;
-                }
-                case VALUE: {
-                    // kkk:vvvn
-                    //        ^
-                    if (c == lineEnding) {
-                        mode.pop();
-                        mode.push(EOL);
-                        break;
-                    }
-                    // kkk:"vvv"
-                    //     ^
-                    if (c == quoteChar && value.size() == 0) {
-                        mode.push(QUOTED);
-                        continue;
-                    }
-                    // kkk:v\vv
-                    //      ^
-                    if (c == escapeChar) {
-                        mode.push(ESCAPED);
-                        continue;
-                    }
-                    // kkk:vvv_kkk:vvv   or   kkk:"vvv"_kkk:vvv
-                    //        ^                        ^
-                    if (c == entryDelimiter) {
-                        mode.push(ENTRY_DELIMITER);
-                        continue;
-                    }
-                    value.write(c);
-                    break;
-                }
-                // kkk:v\vv
-                //       ^
-                case ESCAPED: {
-                    mode.pop();
-                    if (mode.peek() == KEY) {
-                        key.write(c);
-                    }
-                    else {
-                        value.write(c);
-                    }
-                    break;
-                }
-                // kkk:"vvv"   or   kkk:v\vv   or   kkk:"vvv"
-                //       ^               ^                  ^
-                case QUOTED: {
-                    if (c == escapeChar) {
-                        mode.push(ESCAPED);
-                        continue;
-                    }
-                    if (c == quoteChar) {
-                        mode.pop();
-                        if (strict) {
-                            mode.pop();
-                            mode.push(VALUE);
-                            mode.push(ENTRY_DELIMITER);
-                        }
-                        continue;
-                    }
-                    if (mode.peekLast() == KEY) {
-                        key.write(c);
-                    }
-                    else {
-                        value.write(c);
-                    }
+    public Iterator<Map<String, String>> parallelParse(Path path) {
+        return parallelParse(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses a given file in chunks of about <b>chunkSize</b> bytes on a given fork/join pool <br>
+     * Chunks are cut at line endings and parsed ahead of the consumer, while rows are returned in file order and
+     * line numbers in error messages are counted from the start of the file. Lines with quoted or escaped line
+     * endings are never split between chunks. Iteration stops at the first error, unless the error policy skips
+     * lines. Dead letters of a chunk are handed over on the consuming thread before its rows
+     * @param path a file to parse
+     * @param pool a pool to parse chunks on
+     * @return iterator containing a new HashMap for each row in file order
+     */
+    public Iterator<Map<String, String>> parallelParse(Path path, ForkJoinPool pool) {
+        checkMappable();
+        return ParallelLineIterator.newIterator(this, path, pool);
+    }
+
+    /**
+     * Creates an incremental parser that is pushed data with {@link LtsvFeeder#feed(java.nio.ByteBuffer)} instead of
+     * reading a stream, so it can be used in event loops and callbacks of asynchronous channels without blocking.
+     * Every line is passed to a consumer as soon as it is complete
+     * @param sink a consumer of lines, which gets the same {@link LtsvRecord} view refilled for each line, valid only
+     * during the call
+     * @return a new feeder
+     * @throws UnsupportedOperationException if input of the configured charset is transcoded
+     */
+    public LtsvFeeder feeder(Consumer<LtsvRecord> sink) {
+        if (transcodedCharset != null) {
+            throw new UnsupportedOperationException(String.format("Input in [%s] can not be fed, parse an InputStream instead", transcodedCharset));
+        }
+        return new LtsvFeeder(this, sink);
+    }
+
+    /**
+     * Creates a binder that parses lines straight into objects of a given class, without intermediate maps or
+     * strings for non-string fields. Fields are bound to keys by name or by {@link LtsvKey}. A binding plan is built
+     * once per class and cached, so binding a class again is cheap
+     * @param type a class with a no-argument constructor
+     * @param <T> type of objects to bind lines to
+     * @return a binder using configuration of this parser
+     * @throws IllegalArgumentException if a class has no no-argument constructor or has a field of unsupported type
+     */
+    public <T> LtsvBinder<T> bind(Class<T> type) {
+        return new LtsvBinder<>(this, type);
+    }
+
+    /**
+     * Returns key interning counters
+     * @return a snapshot of key cache statistics. If keys are not interned, all counters are zero
+     */
+    public CacheStats keyCacheStats() {
+        return decoder.keyCacheStats();
+    }
+
+    /**
+     * Returns value cache counters
+     * @return a snapshot of value cache statistics. If values are not cached, all counters are zero
+     */
+    public CacheStats valueCacheStats() {
+        return decoder.valueCacheStats();
+    }
+
+    private static void fill(InputBinding input, Consumer<LtsvRecord> sink, int maxRecords) {
+        ParseCursor cursor = input.cursor();
+        try {
+            int count = 0;
+            while (count < maxRecords) {
+                if (!cursor.data().hasRemaining()) {
+                    cursor.data().release();
                     break;
                 }
-                case ENTRY_DELIMITER: {
-                    // kkk:vvv_n
-                    //         ^
-                    if (c == lineEnding) {
-                        mode.pop();
-                        mode.push(EOL);
-                        break;
-                    }
-                    // kkk_kkk:vvv   or   kkk__kkk:vvv
-                    //     ^                  ^
-                    if (c == entryDelimiter) {
-                        continue;
-                    }
-                    // kkk:vvv_\kkk:vvv
-                    //         ^
-                    if (c == escapeChar) {
-                        if (strict) {
-                            throw new ParseLtsvException(String.format("Unexpected quote token [%c] at line [%d] position [%d]", c, lineNum, position));
-                        }
-                        putEntry(result, key, value, lineNum, position);
-                        mode.pop();
-                        mode.pop();
-                        mode.push(KEY);
-                        continue;
-                    }
-                    // kkk:vvv_"kkk":vvv
-                    //         ^
-                    if (c == quoteChar) {
-                        if (strict) {
-                            throw new ParseLtsvException(String.format("Unexpected escape token [%c] at line [%d] position [%d]", c, lineNum, position));
-                        }
-                        putEntry(result, key, value, lineNum, position);
-                        mode.pop();
-                        mode.pop();
-                        mode.push(KEY);
-                        mode.push(QUOTED);
-                        continue;
-                    }
-                    // kkk_:vvv
-                    //     ^
-                    if (c == kvDelimiter) {
-                        putEntry(result, key, value, lineNum, position);
-                        mode.pop();
-                        mode.pop();
-                        mode.push(VALUE);
-                        continue;
-                    }
-                    mode.pop();
-                    putEntry(result, key, value, lineNum, position);
-                    if (mode.peek() == KEY) {
-                        value.write(c);
-                    }
-                    else {
-                        key.write(c);
-                    }
-                    mode.pop();
-                    mode.push(KEY);
-                    break;
+                LtsvRecord record = cursor.next(input.nextLine());
+                if (record != null) {
+                    sink.accept(record);
+                    count++;
                 }
             }
         }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    Iterator<Map<String, String>> newMapIterator(InputBuffer data) {
+        ParseCursor cursor = new ParseCursor(this, data);
+        return LineIterator.newIterator(data, (in, lineNum) -> {
+            LtsvRecord record = cursor.next(lineNum);
+            return record == null ? null : record.toMap();
+        }, skipsLines());
+    }
 
-        // save last k-v pair
-        putEntry(result, key, value, lineNum, position);
-        mode.clear();
-        return result;
+    private Iterator<LtsvRecord> newRecordIterator(InputBuffer data) {
+        ParseCursor cursor = new ParseCursor(this, data);
+        return LineIterator.newViewIterator(data, (in, lineNum) -> cursor.next(lineNum), skipsLines());
     }
 
-    public class Builder {
+    private Stream<Map<String, String>> newStream(InputBuffer data) {
+        return StreamSupport.stream(new LineSpliterator(new ParseCursor(this, data), batchSize), false);
+    }
+
+    /**
+     * Checks if lines that can not be parsed are dropped, so iterators have to look ahead for the next parsed line
+     */
+    boolean skipsLines() {
+        return errorPolicy != LtsvErrorPolicy.FAIL;
+    }
+
+    private InputBuffer map(Path path) {
+        checkMappable();
+        try {
+            return InputBuffer.map(path, InputBuffer.MAP_WINDOW);
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    private InputBuffer map(FileChannel channel) {
+        checkMappable();
+        try {
+            return InputBuffer.map(channel, InputBuffer.MAP_WINDOW);
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    private KeySet keySet(String[] keys) {
+        return new KeySet(new LinkedHashSet<>(Arrays.asList(keys)), charset);
+    }
+
+    /**
+     * Encodes a string to be scanned. A string is encoded with a given charset, so characters it can not represent
+     * are replaced, and is encoded again if the parser scans another charset
+     */
+    byte[] bytes(String data, Charset charset) {
+        byte[] bytes = data.getBytes(charset);
+        if (charset.equals(this.charset)) {
+            return bytes;
+        }
+        return new String(bytes, charset).getBytes(this.charset);
+    }
+
+    /**
+     * Wraps a stream to be scanned, transcoding it if needed
+     */
+    InputStream input(InputStream data) {
+        return input(data, false);
+    }
+
+    private InputStream input(InputStream data, boolean tailing) {
+        return transcodedCharset == null ? data : new TranscodingInputStream(data, transcodedCharset, tailing);
+    }
+
+    private void checkMappable() {
+        if (transcodedCharset != null) {
+            throw new UnsupportedOperationException(String.format("Files in [%s] can not be memory-mapped, parse an InputStream instead", transcodedCharset));
+        }
+    }
+
+    /**
+     * Checks if bytes of a charset can be scanned directly: ASCII characters are single bytes, which never occur in
+     * other characters. This holds for UTF-8 and ASCII compatible single-byte charsets
+     */
+    static boolean isScannable(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Builder {
+
+        private int entryDelimiter = '\t';
+
+        private int kvDelimiter = ':';
+
+        private int escapeChar = '\\';
+
+        private int quoteChar = '\"';
+
+        private int lineEnding = '\n';
+
+        private boolean strict = true;
+
+        private boolean skipNullValues = false;
+
+        private boolean trimKeys = false;
+
+        private boolean trimValues = false;
+
+        private int bufferSize = InputBuffer.DEFAULT_CAPACITY;
+
+        private int maxRetainedBufferSize = InputBuffer.DEFAULT_MAX_RETAINED;
+
+        private int chunkSize = ParallelLineIterator.DEFAULT_CHUNK_SIZE;
+
+        private int batchSize = 1024;
+
+        private String[] selectedKeys = null;
+
+        private int keyCacheCapacity = 0;
+
+        private int valueCacheCapacity = 0;
+
+        private String[] cachedKeys = null;
+
+        private LtsvSchema schema = null;
+
+        private LtsvMetrics metrics = null;
+
+        private LtsvErrorPolicy errorPolicy = LtsvErrorPolicy.FAIL;
+
+        private LtsvDeadLetterHandler deadLetterHandler = null;
+
+        private boolean stackTraces = true;
+
+        private Charset charset = StandardCharsets.UTF_8;
 
         private Builder() {}
 
@@ -343,7 +642,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder strict() {
-            LtsvParser.this.strict = true;
+            this.strict = true;
             return this;
         }
 
@@ -353,7 +652,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder lenient() {
-            LtsvParser.this.strict = false;
+            this.strict = false;
             return this;
         }
 
@@ -363,7 +662,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder withEntryDelimiter(char delim) {
-            LtsvParser.this.entryDelimiter = delim;
+            this.entryDelimiter = delim;
             return this;
         }
 
@@ -373,7 +672,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder withKvDelimiter(char delim) {
-            LtsvParser.this.kvDelimiter = delim;
+            this.kvDelimiter = delim;
             return this;
         }
 
@@ -383,7 +682,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder withEscapeChar(char escape) {
-            LtsvParser.this.escapeChar = escape;
+            this.escapeChar = escape;
             return this;
         }
 
@@ -393,7 +692,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder withQuoteChar(char quote) {
-            LtsvParser.this.quoteChar = quote;
+            this.quoteChar = quote;
             return this;
         }
 
@@ -403,7 +702,24 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder withLineEnding(char eol) {
-            LtsvParser.this.lineEnding = eol;
+            this.lineEnding = eol;
+            return this;
+        }
+
+        /**
+         * Sets up a charset of input streams and files <br>
+         * UTF-8 and ASCII compatible single-byte charsets like ISO-8859-1 are scanned as is. Input in other charsets,
+         * like UTF-16 or Shift_JIS, is transcoded to UTF-8 on the fly, because their multibyte characters may contain
+         * bytes of delimiters; such files can not be memory-mapped. Either way, a key or a value consisting of ASCII
+         * characters only is built without running a charset decoder
+         * @param charset new value
+         * @return <b>this</b> for chaining
+         */
+        public Builder withCharset(Charset charset) {
+            if (charset == null) {
+                throw new IllegalArgumentException("Charset must not be null");
+            }
+            this.charset = charset;
             return this;
         }
 
@@ -412,7 +728,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder skipNullValues() {
-            LtsvParser.this.skipNullValues = true;
+            this.skipNullValues = true;
             return this;
         }
 
@@ -421,7 +737,7 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder trimKeys() {
-            LtsvParser.this.trimKeys = true;
+            this.trimKeys = true;
             return this;
         }
 
@@ -430,16 +746,185 @@ public class LtsvParser {
          * @return <b>this</b> for chaining
          */
         public Builder trimValues() {
-            LtsvParser.this.trimValues = true;
+            this.trimValues = true;
+            return this;
+        }
+
+        /**
+         * Sets up a projection: only given keys are extracted, values of all other keys are skipped without being
+         * collected or decoded. Values without a key are skipped as well
+         * @param keys keys to extract
+         * @return <b>this</b> for chaining
+         */
+        public Builder selectKeys(String... keys) {
+            this.selectedKeys = keys.clone();
+            return this;
+        }
+
+        /**
+         * Sets up key interning: keys are looked up by raw bytes in a bounded symbol table and the same String
+         * instance is returned for the same key without decoding it again. When the table is full, rarely used keys
+         * are evicted, so unexpected input cannot grow it without limit
+         * @param capacity maximum number of keys to keep, rounded up to a power of two
+         * @return <b>this</b> for chaining
+         */
+        public Builder internKeys(int capacity) {
+            this.keyCacheCapacity = StringCache.checkCapacity(capacity);
+            return this;
+        }
+
+        /**
+         * Sets up value deduplication for low-cardinality keys like <i>type</i>, <i>level</i> or <i>action</i>: a value
+         * that was seen before is returned as the same String instance instead of a new copy. Values are kept in a
+         * bounded cache with CLOCK eviction. If no keys are given, low-cardinality keys are detected by cache hit rate
+         * and values of other keys bypass the cache
+         * @param capacity maximum number of values to keep, rounded up to a power of two
+         * @param keys keys to cache values of, or nothing for adaptive detection
+         * @return <b>this</b> for chaining
+         */
+        public Builder cacheValues(int capacity, String... keys) {
+            this.valueCacheCapacity = StringCache.checkCapacity(capacity);
+            this.cachedKeys = keys.clone();
+            return this;
+        }
+
+        /**
+         * Sets up a schema: values of declared keys are decoded right from raw bytes into primitives when a line is
+         * parsed and are read with typed accessors of {@link LtsvRecord}. In strict mode a value that can not be
+         * decoded is an error, in lenient mode it is treated as missing
+         * @param schema a schema of typed keys
+         * @return <b>this</b> for chaining
+         */
+        public Builder withSchema(LtsvSchema schema) {
+            this.schema = schema;
+            return this;
+        }
+
+        /**
+         * Sets up metrics to count parsed lines, errors and parsing time in <br>
+         * Metrics may be shared by several parsers. Without metrics a parser neither counts nor checks the clock
+         * @param metrics metrics to fill
+         * @return <b>this</b> for chaining
+         */
+        public Builder withMetrics(LtsvMetrics metrics) {
+            if (metrics == null) {
+                throw new IllegalArgumentException("Metrics must not be null");
+            }
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Sets up what happens to a line that can not be parsed <br>
+         * With {@link LtsvErrorPolicy#SKIP_LINE} malformed lines are dropped and parsing goes on with the next line,
+         * so a few broken lines do not fail a whole file. Use {@link #withDeadLetterHandler(LtsvDeadLetterHandler)}
+         * to keep them instead
+         * @param policy new value, FAIL or SKIP_LINE
+         * @return <b>this</b> for chaining
+         */
+        public Builder withErrorPolicy(LtsvErrorPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("Error policy must not be null");
+            }
+            if (policy == LtsvErrorPolicy.DEAD_LETTER) {
+                throw new IllegalArgumentException("Dead letter policy needs a handler, use withDeadLetterHandler");
+            }
+            this.errorPolicy = policy;
+            this.deadLetterHandler = null;
+            return this;
+        }
+
+        /**
+         * Sets up {@link LtsvErrorPolicy#DEAD_LETTER} policy: a line that can not be parsed is passed to a handler
+         * with its number and position, and parsing goes on with the next line
+         * @param handler a handler to receive rejected lines
+         * @return <b>this</b> for chaining
+         */
+        public Builder withDeadLetterHandler(LtsvDeadLetterHandler handler) {
+            if (handler == null) {
+                throw new IllegalArgumentException("Dead letter handler must not be null");
+            }
+            this.errorPolicy = LtsvErrorPolicy.DEAD_LETTER;
+            this.deadLetterHandler = handler;
+            return this;
+        }
+
+        /**
+         * Sets up a mode when errors of malformed input are thrown without a stack trace <br>
+         * A {@link MalformedLtsvException} tells the line and the position of an error, which is what matters for
+         * bad input, while capturing a stack trace costs more than parsing a line. Lines dropped by the error policy
+         * never capture stack traces
+         * @return <b>this</b> for chaining
+         */
+        public Builder skipStackTraces() {
+            this.stackTraces = false;
+            return this;
+        }
+
+        /**
+         * Sets up a size of a read window used to pull data from input streams in chunks
+         * @param size new value in bytes
+         * @return <b>this</b> for chaining
+         */
+        public Builder withBufferSize(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Buffer size must be positive");
+            }
+            this.bufferSize = size;
+            return this;
+        }
+
+        /**
+         * Sets up the largest read window a thread keeps for the next input stream when it is done with one <br>
+         * Windows grow to fit the longest line, and a grown window is kept at its size, so consecutive inputs parsed
+         * on the same thread neither allocate a window nor grow it again. A window that grew beyond this size is
+         * dropped instead, so a single huge line does not pin memory for the lifetime of a thread
+         * @param size new value in bytes, 0 to never keep windows
+         * @return <b>this</b> for chaining
+         */
+        public Builder withMaxRetainedBufferSize(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Retained buffer size must not be negative");
+            }
+            this.maxRetainedBufferSize = size;
+            return this;
+        }
+
+        /**
+         * Sets up a size of file chunks that are parsed in parallel by {@link LtsvParser#parallelParse(Path)}. Parallel
+         * streams of files and strings do not split ranges shorter than that
+         * @param size new value in bytes
+         * @return <b>this</b> for chaining
+         */
+        public Builder withChunkSize(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive");
+            }
+            this.chunkSize = size;
+            return this;
+        }
+
+        /**
+         * Sets up a number of rows a parallel stream parses ahead on its first split. Every next split takes
+         * <b>size</b> rows more
+         * @param size new value in rows
+         * @return <b>this</b> for chaining
+         */
+        public Builder withBatchSize(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+            this.batchSize = size;
             return this;
         }
 
         /**
-         * Finishes build process and returns a new parser
+         * Finishes build process and returns a new parser <br>
+         * Every call returns an independent parser with its own caches, so a builder may be reused
          * @return a newly configured LTSV parser
          */
         public LtsvParser build() {
-            return LtsvParser.this;
+            return new LtsvParser(this);
         }
     }
 }
@@ -0,0 +1,510 @@
+package com.github.lolo.ltsv;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A parsed line that references its keys and values by offsets in the parser input instead of copying them <br>
+ * Nothing is decoded until an accessor asks for it, so reading a few fields of a wide line costs only these fields.
+ * <br><br>
+ * <b>Be careful</b> - a record is a view of the parser input and is reused by the iterator that returned it. It stays
+ * valid only until the next call to the iterator. Use {@link #toMap()} to keep the data longer.
+ */
+public final class LtsvRecord {
+
+    private static final int NULL = -1;
+
+    private static final int STRIDE = 5;
+
+    private static final int ASCII_KEY = 1;
+
+    private static final int ASCII_VALUE = 2;
+
+    private final InputBuffer source;
+
+    private final FieldDecoder decoder;
+
+    private final LtsvSchema schema;
+
+    /**
+     * Entry of every schema field, -1 if a field is missing
+     */
+    private final int[] bound;
+
+    /**
+     * Decoded values of schema fields, doubles are stored as raw long bits
+     */
+    private final long[] slots;
+
+    final FieldSlice keys = new FieldSlice();
+
+    final FieldSlice values = new FieldSlice();
+
+    private int[] fields = new int[16 * STRIDE];
+
+    private int size;
+
+    private int lineNumber;
+
+    private int resolved;
+
+    LtsvRecord(InputBuffer source, FieldDecoder decoder, LtsvSchema schema) {
+        this.source = source;
+        this.decoder = decoder;
+        this.schema = schema;
+        this.bound = schema == null ? null : new int[schema.size()];
+        this.slots = schema == null ? null : new long[schema.size()];
+    }
+
+    void clear(int lineNumber) {
+        this.lineNumber = lineNumber;
+        this.size = 0;
+        keys.clear();
+        values.clear();
+        if (bound != null) {
+            Arrays.fill(bound, -1);
+        }
+    }
+
+    void add(int keyOffset, int keyLength, boolean asciiKey, int valueOffset, int valueLength, boolean asciiValue) {
+        int index = size * STRIDE;
+        if (index == fields.length) {
+            fields = Arrays.copyOf(fields, fields.length << 1);
+        }
+        fields[index] = keyOffset;
+        fields[index + 1] = keyLength;
+        fields[index + 2] = valueOffset;
+        fields[index + 3] = valueLength;
+        fields[index + 4] = (asciiKey ? ASCII_KEY : 0) | (asciiValue ? ASCII_VALUE : 0);
+        size++;
+    }
+
+    void addNullKey(int valueOffset, int valueLength, boolean asciiValue) {
+        add(0, NULL, true, valueOffset, valueLength, asciiValue);
+    }
+
+    void addNullValue(int keyOffset, int keyLength, boolean asciiKey) {
+        add(keyOffset, keyLength, asciiKey, 0, NULL, true);
+    }
+
+    void bind(int field) {
+        bound[field] = (size - 1) * STRIDE;
+    }
+
+    void decodeFields(boolean strict, LtsvMetrics metrics, boolean stackTraces) {
+        for (int f = 0; f < bound.length; f++) {
+            int i = bound[f];
+            if (i < 0) {
+                continue;
+            }
+            int length = fields[i + 3];
+            if (length == NULL) {
+                bound[f] = -1;
+                continue;
+            }
+            byte[] array = resolve(fields[i + 2], length, values);
+            LtsvSchema.Field field = schema.field(f);
+            try {
+                slots[f] = field.type().decode(array, resolved, length);
+            }
+            catch (NumberFormatException ex) {
+                if (strict) {
+                    if (metrics != null) {
+                        metrics.error(LtsvError.INVALID_VALUE);
+                    }
+                    throw MalformedLtsvException.invalidValue(lineNumber, field.key(), field.type().toString(), ex, stackTraces);
+                }
+                if (metrics != null) {
+                    metrics.recovery(LtsvError.INVALID_VALUE);
+                }
+                bound[f] = -1;
+            }
+        }
+    }
+
+    /**
+     * @return zero-based number of the line this record was parsed from
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return number of entries in this record. Duplicate keys are counted as separate entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a key of the entry at a given index
+     * @param index entry index from 0 to {@link #size()} exclusive
+     * @return decoded key or <b>null</b> for a value without a key (lenient mode only)
+     */
+    public String key(int index) {
+        checkIndex(index);
+        return decodeKey(index * STRIDE);
+    }
+
+    /**
+     * Returns a value of the entry at a given index
+     * @param index entry index from 0 to {@link #size()} exclusive
+     * @return decoded value or <b>null</b> for an empty value
+     */
+    public String value(int index) {
+        checkIndex(index);
+        return decodeValue(index * STRIDE);
+    }
+
+    /**
+     * Checks if this record contains a given key
+     * @param key a key to look for, <b>null</b> looks for a value without a key
+     * @return <b>true</b> if the key is present
+     */
+    public boolean containsKey(CharSequence key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Returns a value for a given key. If the key occurs several times, the last one wins, exactly as in
+     * {@link #toMap()}
+     * @param key a key to look for, <b>null</b> looks for a value without a key
+     * @return decoded value or <b>null</b> if there is no such key or the value is empty
+     */
+    public String get(CharSequence key) {
+        int i = find(key);
+        return i < 0 ? null : decodeValue(i);
+    }
+
+    /**
+     * Returns raw bytes of a value for a given key
+     * @param key a key to look for, <b>null</b> looks for a value without a key
+     * @return a copy of value bytes or <b>null</b> if there is no such key or the value is empty
+     */
+    public byte[] getBytes(CharSequence key) {
+        int i = find(key);
+        if (i < 0 || fields[i + 3] == NULL) {
+            return null;
+        }
+        int offset = fields[i + 2];
+        int length = fields[i + 3];
+        byte[] result = new byte[length];
+        for (int j = 0; j < length; j++) {
+            result[j] = byteAt(offset, j, values);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a value for a given key as a decimal int right from the input bytes
+     * @param key a key to look for
+     * @return parsed value
+     * @throws NumberFormatException if there is no such key, the value is empty or is not a valid int
+     */
+    public int getInt(CharSequence key) {
+        long result = parseLong(key, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return (int) result;
+    }
+
+    /**
+     * Parses a value for a given key as a decimal long right from the input bytes
+     * @param key a key to look for
+     * @return parsed value
+     * @throws NumberFormatException if there is no such key, the value is empty or is not a valid long
+     */
+    public long getLong(CharSequence key) {
+        return parseLong(key, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Checks if a schema field has a value in this record
+     * @param field a field of the parser schema
+     * @return <b>true</b> if the key is present and its value is not empty
+     */
+    public boolean isPresent(LtsvSchema.Field field) {
+        checkField(field);
+        return bound[field.index] >= 0;
+    }
+
+    /**
+     * Returns a value of a schema field of type {@link LtsvSchema.Type#INT}
+     * @param field a field of the parser schema
+     * @return decoded value
+     * @throws NumberFormatException if there is no such key or the value is empty
+     */
+    public int getInt(LtsvSchema.Field field) {
+        return (int) slot(field, LtsvSchema.Type.INT);
+    }
+
+    /**
+     * Returns a value of a schema field of type {@link LtsvSchema.Type#LONG}
+     * @param field a field of the parser schema
+     * @return decoded value
+     * @throws NumberFormatException if there is no such key or the value is empty
+     */
+    public long getLong(LtsvSchema.Field field) {
+        return slot(field, LtsvSchema.Type.LONG);
+    }
+
+    /**
+     * Returns a value of a schema field of type {@link LtsvSchema.Type#DOUBLE}
+     * @param field a field of the parser schema
+     * @return decoded value
+     * @throws NumberFormatException if there is no such key or the value is empty
+     */
+    public double getDouble(LtsvSchema.Field field) {
+        return Double.longBitsToDouble(slot(field, LtsvSchema.Type.DOUBLE));
+    }
+
+    /**
+     * Returns a value of a schema field of type {@link LtsvSchema.Type#IPV4}
+     * @param field a field of the parser schema
+     * @return an address with the first octet in the highest byte
+     * @throws NumberFormatException if there is no such key or the value is empty
+     */
+    public int getIpv4(LtsvSchema.Field field) {
+        return (int) slot(field, LtsvSchema.Type.IPV4);
+    }
+
+    /**
+     * Returns a value of a schema field of type {@link LtsvSchema.Type#EPOCH_MILLIS}
+     * @param field a field of the parser schema
+     * @return milliseconds since epoch
+     * @throws NumberFormatException if there is no such key or the value is empty
+     */
+    public long getEpochMillis(LtsvSchema.Field field) {
+        return slot(field, LtsvSchema.Type.EPOCH_MILLIS);
+    }
+
+    /**
+     * Decodes all entries into a new map, the same way the map based parser API does
+     * @return a new HashMap with record data
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < size * STRIDE; i += STRIDE) {
+            result.put(decodeKey(i), decodeValue(i));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    /**
+     * @return <b>true</b> if a schema field with a given index has a decoded value
+     */
+    boolean isPresent(int field) {
+        return bound[field] >= 0;
+    }
+
+    /**
+     * @return decoded value of a schema field with a given index, doubles as raw long bits
+     */
+    long slot(int field) {
+        return slots[field];
+    }
+
+    private void checkField(LtsvSchema.Field field) {
+        if (field.schema != schema) {
+            throw new IllegalArgumentException(String.format("Field [%s] is not declared in parser schema", field));
+        }
+    }
+
+    private long slot(LtsvSchema.Field field, LtsvSchema.Type type) {
+        checkField(field);
+        if (field.type() != type) {
+            throw new IllegalArgumentException(String.format("Field [%s] is not of type %s", field, type));
+        }
+        if (bound[field.index] < 0) {
+            throw new NumberFormatException(String.format("No value for key [%s]", field.key()));
+        }
+        return slots[field.index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index [%d] is out of record bounds [%d]", index, size));
+        }
+    }
+
+    private int find(CharSequence key) {
+        byte[] encoded = null;
+        if (key != null) {
+            for (int j = 0; j < key.length(); j++) {
+                if (key.charAt(j) >= 0x80) {
+                    encoded = key.toString().getBytes(decoder.charset());
+                    break;
+                }
+            }
+        }
+        for (int i = (size - 1) * STRIDE; i >= 0; i -= STRIDE) {
+            int offset = fields[i];
+            int length = fields[i + 1];
+            if (key == null) {
+                if (length == NULL) {
+                    return i;
+                }
+                continue;
+            }
+            if (encoded != null) {
+                if (length == encoded.length && matches(offset, encoded)) {
+                    return i;
+                }
+            }
+            else
+            if (length == key.length() && matches(offset, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int offset, CharSequence key) {
+        for (int j = 0; j < key.length(); j++) {
+            if (byteAt(offset, j, keys) != key.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int offset, byte[] key) {
+        for (int j = 0; j < key.length; j++) {
+            if (byteAt(offset, j, keys) != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseLong(CharSequence key, long min, long max) {
+        int i = find(key);
+        if (i < 0 || fields[i + 3] == NULL) {
+            throw new NumberFormatException(String.format("No value for key [%s]", key));
+        }
+        int offset = fields[i + 2];
+        int length = fields[i + 3];
+        int j = 0;
+        boolean negative = false;
+        byte first = byteAt(offset, 0, values);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            j++;
+        }
+        if (j == length) {
+            throw numberFormatException(i);
+        }
+        // accumulate negatively to be able to represent min value
+        long limit = negative ? min : -max;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; j < length; j++) {
+            int digit = byteAt(offset, j, values) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw numberFormatException(i);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(i);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private NumberFormatException numberFormatException(int i) {
+        return new NumberFormatException(String.format("For input string: \"%s\"", decodeValue(i)));
+    }
+
+    private byte byteAt(int offset, int index, FieldSlice slice) {
+        if (offset < 0) {
+            return slice.scratch[~offset + index];
+        }
+        return source.data.get(source.mark + offset + index);
+    }
+
+    private String decodeKey(int i) {
+        int length = fields[i + 1];
+        if (length == NULL) {
+            return null;
+        }
+        byte[] array = resolve(fields[i], length, keys);
+        return decoder.key(array, resolved, length, (fields[i + 4] & ASCII_KEY) != 0);
+    }
+
+    private String decodeValue(int i) {
+        int length = fields[i + 3];
+        if (length == NULL) {
+            return null;
+        }
+        byte[] array = resolve(fields[i + 2], length, values);
+        int from = resolved;
+        boolean ascii = (fields[i + 4] & ASCII_VALUE) != 0;
+        int keyLength = fields[i + 1];
+        if (decoder.cachesValues() && keyLength != NULL) {
+            byte[] key = resolve(fields[i], keyLength, keys);
+            return decoder.value(key, resolved, keyLength, array, from, length, ascii);
+        }
+        return decoder.value(array, from, length, ascii);
+    }
+
+    /**
+     * Passes entries to a handler as raw bytes without decoding them
+     */
+    void emit(LtsvHandler handler) {
+        handler.startRecord(lineNumber);
+        for (int i = 0; i < size * STRIDE; i += STRIDE) {
+            byte[] key = null;
+            int keyOffset = 0;
+            int keyLength = fields[i + 1];
+            if (keyLength == NULL) {
+                keyLength = 0;
+            }
+            else {
+                key = resolve(fields[i], keyLength, keys);
+                keyOffset = resolved;
+            }
+            byte[] value = null;
+            int valueOffset = 0;
+            int valueLength = fields[i + 3];
+            if (valueLength == NULL) {
+                valueLength = 0;
+            }
+            else {
+                value = resolve(fields[i + 2], valueLength, values);
+                valueOffset = resolved;
+            }
+            handler.field(key, keyOffset, keyLength, value, valueOffset, valueLength);
+        }
+        handler.endRecord();
+    }
+
+    /**
+     * Finds an array holding field bytes and stores their start in {@link #resolved}
+     */
+    private byte[] resolve(int offset, int length, FieldSlice slice) {
+        if (offset < 0) {
+            resolved = ~offset;
+            return slice.scratch;
+        }
+        ByteBuffer window = source.data;
+        if (window.hasArray()) {
+            resolved = window.arrayOffset() + source.mark + offset;
+            return window.array();
+        }
+        byte[] array = new byte[length];
+        for (int j = 0; j < length; j++) {
+            array[j] = window.get(source.mark + offset + j);
+        }
+        resolved = 0;
+        return array;
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.lolo.ltsv;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declares typed keys, which a parser decodes right from raw bytes into primitives <br>
+ * Values of declared keys are parsed once per line, without creating Strings, and are read from a record with
+ * typed accessors like {@link LtsvRecord#getLong(Field)}. A schema is immutable and may be shared between parsers.
+ * <pre>
+ *     LtsvSchema schema = LtsvSchema.builder().field("sentbyte", LtsvSchema.Type.LONG).build();
+ *     LtsvSchema.Field sentbyte = schema.field("sentbyte");
+ *     LtsvParser parser = LtsvParser.builder().withSchema(schema).build();
+ * </pre>
+ */
+public final class LtsvSchema {
+
+    private final Field[] fields;
+
+    private LtsvSchema(Map<String, Type> declared) {
+        List<Field> list = new ArrayList<>();
+        for (Map.Entry<String, Type> entry : declared.entrySet()) {
+            list.add(new Field(this, list.size(), entry.getKey(), entry.getValue()));
+        }
+        this.fields = list.toArray(new Field[0]);
+    }
+
+    /**
+     * Creates a new builder for an empty schema
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a declared field to read typed values with
+     * @param key a declared key
+     * @return a field handle
+     * @throws IllegalArgumentException if a key is not declared
+     */
+    public Field field(String key) {
+        for (Field field : fields) {
+            if (field.key.equals(key)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Key [%s] is not declared in schema", key));
+    }
+
+    /**
+     * @return number of declared fields
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    Field field(int index) {
+        return fields[index];
+    }
+
+    /**
+     * @return declared keys in declaration order, which is the order of field indexes
+     */
+    String[] keys() {
+        String[] keys = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            keys[i] = fields[i].key;
+        }
+        return keys;
+    }
+
+    /**
+     * A type to decode values of a key into
+     */
+    public enum Type {
+        /**
+         * Decimal int
+         */
+        INT {
+            @Override
+            long decode(byte[] data, int offset, int length) {
+                return ValueParser.parseLong(data, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+        },
+        /**
+         * Decimal long
+         */
+        LONG {
+            @Override
+            long decode(byte[] data, int offset, int length) {
+                return ValueParser.parseLong(data, offset, length, Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+        },
+        /**
+         * Decimal double with an optional fraction and exponent
+         */
+        DOUBLE {
+            @Override
+            long decode(byte[] data, int offset, int length) {
+                return Double.doubleToRawLongBits(ValueParser.parseDouble(data, offset, length));
+            }
+        },
+        /**
+         * Dotted IPv4 address as an int, the first octet in the highest byte
+         */
+        IPV4 {
+            @Override
+            long decode(byte[] data, int offset, int length) {
+                return ValueParser.parseIpv4(data, offset, length);
+            }
+        },
+        /**
+         * ISO-8601 or common log format timestamp as milliseconds since epoch
+         */
+        EPOCH_MILLIS {
+            @Override
+            long decode(byte[] data, int offset, int length) {
+                return ValueParser.parseEpochMillis(data, offset, length);
+            }
+        };
+
+        /**
+         * Decodes a value into a long slot of a record
+         * @throws NumberFormatException if a value is not valid
+         */
+        abstract long decode(byte[] data, int offset, int length);
+    }
+
+    /**
+     * A declared key of a schema
+     */
+    public static final class Field {
+
+        final LtsvSchema schema;
+
+        final int index;
+
+        private final String key;
+
+        private final Type type;
+
+        private Field(LtsvSchema schema, int index, String key, Type type) {
+            this.schema = schema;
+            this.index = index;
+            this.key = key;
+            this.type = type;
+        }
+
+        /**
+         * @return declared key
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * @return declared type
+         */
+        public Type type() {
+            return type;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return key + ':' + type;
+        }
+    }
+
+    public static class Builder {
+
+        private final Map<String, Type> declared = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Declares a typed key. Declaring a key again changes its type
+         * @param key a key to decode values of
+         * @param type a type to decode values into
+         * @return <b>this</b> for chaining
+         */
+        public Builder field(String key, Type type) {
+            if (key == null || type == null) {
+                throw new IllegalArgumentException("Key and type must not be null");
+            }
+            declared.put(key, type);
+            return this;
+        }
+
+        /**
+         * Finishes build process and returns a new schema
+         * @return a new schema
+         */
+        public LtsvSchema build() {
+            return new LtsvSchema(new LinkedHashMap<>(declared));
+        }
+    }
+}
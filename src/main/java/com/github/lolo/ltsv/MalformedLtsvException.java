@@ -0,0 +1,110 @@
+package com.github.lolo.ltsv;
+
+/**
+ * An error caused by malformed input rather than by the data source <br>
+ * The kind of error, the line and the position are kept as fields, and the message is only formatted when it is
+ * asked for, so creating an exception costs about as much as creating any small object. Unless a parser fails on
+ * errors and keeps stack traces, the stack trace is not captured either, so junk input can be dropped at line rate.
+ */
+public class MalformedLtsvException extends ParseLtsvException {
+
+    private final LtsvError error;
+
+    private final int lineNumber;
+
+    private final int position;
+
+    private final int token;
+
+    private final String key;
+
+    private final String type;
+
+    private String message;
+
+    private MalformedLtsvException(LtsvError error, int lineNumber, int position, int token, String key, String type,
+                                   Throwable cause, boolean stackTrace) {
+        super(null, cause, stackTrace);
+        this.error = error;
+        this.lineNumber = lineNumber;
+        this.position = position;
+        this.token = token;
+        this.key = key;
+        this.type = type;
+    }
+
+    /**
+     * Creates an error of a given token at a given position of a line
+     */
+    static MalformedLtsvException of(LtsvError error, int lineNumber, int position, int token, boolean stackTrace) {
+        return new MalformedLtsvException(error, lineNumber, position, token, null, null, null, stackTrace);
+    }
+
+    /**
+     * Creates an error of a value that does not match its type
+     * @param type name of the expected type, or <b>null</b> if it is not reported
+     */
+    static MalformedLtsvException invalidValue(int lineNumber, String key, String type, Throwable cause, boolean stackTrace) {
+        return new MalformedLtsvException(LtsvError.INVALID_VALUE, lineNumber, -1, -1, key, type, cause, stackTrace);
+    }
+
+    /**
+     * @return kind of malformed input
+     */
+    public LtsvError error() {
+        return error;
+    }
+
+    /**
+     * @return zero-based number of the line
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return one-based position of the offending byte in the line, in characters for
+     * {@link LtsvParser#parse(CharSequence)}, or -1 for an invalid value
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * @return key of an invalid value, otherwise <b>null</b>
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getMessage() {
+        String result = message;
+        if (result == null) {
+            result = format();
+            message = result;
+        }
+        return result;
+    }
+
+    private String format() {
+        switch (error) {
+            case EMPTY_KEY:
+                return String.format("Empty key detected at line [%d] position [%d]", lineNumber, position);
+            case KEY_WITHOUT_VALUE:
+                return String.format("Key without a value at line [%d] position [%d]", lineNumber, position);
+            case UNEXPECTED_QUOTE:
+                return String.format("Unexpected quote token [%c] at line [%d] position [%d]", token, lineNumber, position);
+            case UNEXPECTED_ESCAPE:
+                return String.format("Unexpected escape token [%c] at line [%d] position [%d]", token, lineNumber, position);
+            default:
+                if (type == null) {
+                    return String.format("Invalid value for key [%s] at line [%d]", key, lineNumber);
+                }
+                return String.format("Invalid %s value for key [%s] at line [%d]", type, key, lineNumber);
+        }
+    }
+}
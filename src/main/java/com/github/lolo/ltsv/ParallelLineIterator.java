@@ -0,0 +1,266 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a file in chunks on a fork/join pool and returns rows in file order <br>
+ * A file is cut right after a line ending every <b>chunkSize</b> bytes or so, and chunks are parsed ahead of the
+ * consumer as if every cut was a line start. A cut may fall into a quoted or escaped value containing a line ending,
+ * so before rows of a chunk are returned, its start is checked against the real end of the previous chunk, and the
+ * chunk is parsed again from the right offset if they differ. Line numbers are only known when chunks are consumed,
+ * so a chunk that failed is parsed again with the right first line to report an error. An error stops iteration,
+ * unless the error policy skips lines. Rejected lines are collected per chunk and passed to the dead letter handler
+ * on the consuming thread, so the handler needs no synchronization and gets right line numbers. Metrics are counted
+ * per chunk as well and added to the parser metrics only when a chunk is consumed, so lines of chunks parsed again or
+ * never consumed are not counted.
+ */
+final class ParallelLineIterator implements Iterator<Map<String, String>> {
+
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    static final int SCAN_BLOCK = 8 * 1024;
+
+    private final LtsvParser parser;
+
+    private final Path path;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Chunk boundaries: chunk <b>i</b> is speculatively parsed from <b>cuts[i]</b> to <b>cuts[i + 1]</b>
+     */
+    private final long[] cuts;
+
+    private final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+
+    private final int ahead;
+
+    private int submitted = 0;
+
+    private int consumed = 0;
+
+    private long start = 0;
+
+    private int line = 0;
+
+    private Chunk current = null;
+
+    private int index = 0;
+
+    private ParallelLineIterator(LtsvParser parser, Path path, ForkJoinPool pool, long[] cuts) {
+        this.parser = parser;
+        this.path = path;
+        this.pool = pool;
+        this.cuts = cuts;
+        this.ahead = Math.max(2, pool.getParallelism() * 2);
+        submit();
+    }
+
+    static Iterator<Map<String, String>> newIterator(LtsvParser parser, Path path, ForkJoinPool pool) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ParallelLineIterator(parser, path, pool, cut(channel, parser.lineEnding, parser.chunkSize));
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while (current == null || index == current.rows.size()) {
+            if (current != null && current.error != null) {
+                return true;
+            }
+            if (consumed == cuts.length - 1) {
+                return false;
+            }
+            advance();
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (index == current.rows.size()) {
+            for (ForkJoinTask<Chunk> task : pending) {
+                task.cancel(false);
+            }
+            pending.clear();
+            throw current.error;
+        }
+        return current.rows.get(index++);
+    }
+
+    private void advance() {
+        Chunk chunk = pending.poll().join();
+        submit();
+        // a speculative chunk is valid if the previous one really ended where it starts
+        if (chunk.start != start || (chunk.error != null || !chunk.rejected.isEmpty()) && chunk.firstLine != line) {
+            chunk = parse(start, cuts[consumed + 1], line);
+        }
+        if (chunk.metrics != null) {
+            parser.metrics.add(chunk.metrics);
+        }
+        for (Rejected rejected : chunk.rejected) {
+            parser.deadLetterHandler.reject(rejected.line, rejected.lineNum, rejected.position, rejected.error);
+        }
+        consumed++;
+        line += chunk.lines;
+        start = chunk.end;
+        current = chunk;
+        index = 0;
+    }
+
+    private void submit() {
+        while (submitted < cuts.length - 1 && pending.size() < ahead) {
+            long from = cuts[submitted];
+            long to = cuts[submitted + 1];
+            pending.add(pool.submit(() -> parse(from, to, 0)));
+            submitted++;
+        }
+    }
+
+    /**
+     * Parses all lines starting before <b>to</b>. The last line is read to its end even if it crosses <b>to</b>
+     */
+    private Chunk parse(long from, long to, int firstLine) {
+        Chunk chunk = new Chunk(from, firstLine, parser.metrics == null ? null : new LtsvMetrics());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(from);
+            InputBuffer data = InputBuffer.of(Channels.newInputStream(channel), parser.bufferSize, parser.maxRetainedBufferSize);
+            data.offset = from;
+            ParseCursor cursor = new ParseCursor(parser, data, parser.deadLetterHandler == null ? null : chunk::reject, chunk.metrics);
+            int lineNum = firstLine;
+            while (data.offset + data.position < to && data.hasRemaining()) {
+                LtsvRecord record = cursor.next(lineNum);
+                if (record != null) {
+                    chunk.rows.add(record.toMap());
+                }
+                lineNum++;
+                chunk.lines++;
+            }
+            chunk.end = data.offset + data.position;
+            data.release();
+        }
+        catch (ParseLtsvException ex) {
+            chunk.error = ex;
+        }
+        catch (IOException ex) {
+            chunk.error = new ParseLtsvException("Error reading data source", ex);
+        }
+        return chunk;
+    }
+
+    private static long[] cut(FileChannel channel, int lineEnding, int chunkSize) throws IOException {
+        long size = channel.size();
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+        long[] cuts = new long[16];
+        int count = 1;
+        long cut = 0;
+        while (cut < size) {
+            cut = nextLineStart(channel, block, cut + chunkSize - 1, size, lineEnding);
+            if (count == cuts.length) {
+                cuts = Arrays.copyOf(cuts, count << 1);
+            }
+            cuts[count++] = cut;
+        }
+        return Arrays.copyOf(cuts, count);
+    }
+
+    static long nextLineStart(FileChannel channel, ByteBuffer block, long from, long size, int lineEnding) throws IOException {
+        long offset = from;
+        while (offset < size) {
+            block.clear();
+            int read = channel.read(block, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if ((block.get(i) & 0xFF) == lineEnding) {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    private static final class Chunk {
+
+        private final long start;
+
+        private final int firstLine;
+
+        private final List<Map<String, String>> rows = new ArrayList<>();
+
+        private final List<Rejected> rejected = new ArrayList<>(0);
+
+        /**
+         * Counts of this chunk only, <b>null</b> if the parser has no metrics
+         */
+        private final LtsvMetrics metrics;
+
+        /**
+         * Number of parsed lines, dropped ones included
+         */
+        private int lines;
+
+        private long end = -1;
+
+        private ParseLtsvException error;
+
+        private Chunk(long start, int firstLine, LtsvMetrics metrics) {
+            this.start = start;
+            this.firstLine = firstLine;
+            this.metrics = metrics;
+        }
+
+        private void reject(byte[] line, int lineNum, long position, ParseLtsvException error) {
+            rejected.add(new Rejected(line, lineNum, position, error));
+        }
+    }
+
+    /**
+     * A line a chunk could not parse, kept until the chunk is consumed
+     */
+    private static final class Rejected {
+
+        private final byte[] line;
+
+        private final int lineNum;
+
+        private final long position;
+
+        private final ParseLtsvException error;
+
+        private Rejected(byte[] line, int lineNum, long position, ParseLtsvException error) {
+            this.line = line;
+            this.lineNum = lineNum;
+            this.position = position;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.github.lolo.ltsv.ParseMode.*;
+
+/**
+ * Per-parse state of a single input: a read window, a record view the lines are parsed into and a copy of parser
+ * configuration <br>
+ * A cursor is owned by one iterator, so a parser itself keeps no mutable state and may be shared between threads.
+ */
+final class ParseCursor extends LineCursor {
+
+    private final LtsvSchema schema;
+
+    private final KeySet schemaKeys;
+
+    private final InputBuffer data;
+
+    private final LtsvRecord record;
+
+    private final StopScanner keyRun;
+
+    private final StopScanner valueRun;
+
+    /**
+     * State of a line suspended until more data is fed: the parser mode, the position in the line and the time spent
+     * parsing it so far
+     */
+    private boolean suspended;
+
+    private int suspendedMode;
+
+    private int suspendedPosition;
+
+    private long suspendedNanos;
+
+    /**
+     * An error of a line whose end is not fed yet, the rest of the line is skipped first thing on the next call
+     */
+    private ParseLtsvException rejected;
+
+    private int rejectedLine;
+
+    ParseCursor(LtsvParser parser, InputBuffer data) {
+        this(parser, data, parser.deadLetterHandler, parser.metrics);
+    }
+
+    /**
+     * Creates a cursor passing rejected lines to a given handler and counting into given metrics instead of the
+     * configured ones
+     */
+    ParseCursor(LtsvParser parser, InputBuffer data, LtsvDeadLetterHandler deadLetterHandler, LtsvMetrics metrics) {
+        super(parser, deadLetterHandler, metrics);
+        this.schema = parser.schema;
+        this.schemaKeys = parser.schemaKeys;
+        this.data = data;
+        this.record = new LtsvRecord(data, parser.decoder, parser.schema);
+        this.keyRun = new StopScanner(lineEnding, parser.entryDelimiter, parser.quoteChar, parser.escapeChar, parser.kvDelimiter);
+        // a quote only matters at the value start, and runs are scanned after some value byte
+        this.valueRun = new StopScanner(lineEnding, parser.entryDelimiter, parser.escapeChar);
+    }
+
+    InputBuffer data() {
+        return data;
+    }
+
+    private void putEntry(InputBuffer data, LtsvRecord result, FieldSlice key, FieldSlice value, int lineNum, int position) {
+        if (key.size() > 0) {
+            if (trimKeys) {
+                key.trim(data);
+            }
+            if (selects(data, key, value)) {
+                if (value.size() == 0) {
+                    if (!skipNullValues) {
+                        result.addNullValue(key.offset(), key.size(), key.ascii());
+                        bind(data, result, key);
+                    }
+                }
+                else {
+                    if (trimValues) {
+                        value.trim(data);
+                    }
+                    result.add(key.offset(), key.size(), key.ascii(), value.offset(), value.size(), value.ascii());
+                    bind(data, result, key);
+                }
+            }
+        }
+        else {
+            if (value.size() > 0) {
+                emptyKey(lineNum, position);
+                if (projection == null) {
+                    if (trimValues) {
+                        value.trim(data);
+                    }
+                    result.addNullKey(value.offset(), value.size(), value.ascii());
+                }
+            }
+        }
+        key.reset();
+        value.reset();
+    }
+
+    /**
+     * Binds the last added entry to a schema field, so it is decoded when the line is complete
+     */
+    private void bind(InputBuffer data, LtsvRecord result, FieldSlice key) {
+        if (schema != null) {
+            int field = schemaKeys.indexOf(data, key);
+            if (field >= 0) {
+                result.bind(field);
+            }
+        }
+    }
+
+    private boolean selects(InputBuffer data, FieldSlice key, FieldSlice value) {
+        return projection == null || !value.skipping && projection.contains(data, key);
+    }
+
+    /**
+     * Called when a key is complete, so a value of a key that is not selected is not collected at all
+     */
+    private void project(InputBuffer data, FieldSlice key, FieldSlice value) {
+        if (projection != null) {
+            if (trimKeys) {
+                // raw key boundaries still decide if a key is empty, so they are restored after matching
+                int start = key.start;
+                int end = key.end;
+                key.trim(data);
+                value.skipping = !projection.contains(data, key);
+                key.start = start;
+                key.end = end;
+            }
+            else {
+                value.skipping = !projection.contains(data, key);
+            }
+        }
+    }
+
+    /**
+     * Parses the next line into the record view, which is returned refilled <br>
+     * If the line can not be parsed, the rest of it is skipped and the error policy decides what happens next. If a
+     * fed window runs out of data in the middle of a line, parsing is suspended and the same line goes on with the
+     * next call
+     * @return the record view, or <b>null</b> if the line was dropped or parsing is {@link #suspended()}
+     */
+    LtsvRecord next(int lineNum) throws IOException {
+        if (rejected != null) {
+            int end = skipLine();
+            if (end >= 0) {
+                ParseLtsvException error = rejected;
+                rejected = null;
+                if (errorPolicy != LtsvErrorPolicy.FAIL) {
+                    deadLetter(rejectedLine, error, end);
+                }
+            }
+            return null;
+        }
+        try {
+            return parse(lineNum);
+        }
+        catch (ParseLtsvException ex) {
+            reject(lineNum, ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return <b>true</b> if a fed window ran out of data in the middle of a line, which is not complete yet
+     */
+    boolean suspended() {
+        return suspended || rejected != null;
+    }
+
+    /**
+     * Handles a line that failed to parse or to bind: skips to the next line ending, so parsing can go on with the
+     * next line, then throws the error or passes the line to the dead letter handler, according to the policy. If
+     * the line ending is not fed yet, the rest of the line is skipped when it is
+     * @throws ParseLtsvException the error itself with {@link LtsvErrorPolicy#FAIL} policy
+     */
+    void reject(int lineNum, ParseLtsvException error) throws IOException {
+        int end = skipLine();
+        if (end < 0) {
+            rejected = error;
+            rejectedLine = lineNum;
+        }
+        if (errorPolicy == LtsvErrorPolicy.FAIL) {
+            throw error;
+        }
+        if (end >= 0) {
+            deadLetter(lineNum, error, end);
+        }
+    }
+
+    private void deadLetter(int lineNum, ParseLtsvException error, int end) {
+        if (deadLetterHandler != null) {
+            byte[] line = new byte[end - data.mark];
+            ByteBuffer view = data.data.duplicate();
+            view.position(data.mark);
+            view.get(line);
+            deadLetterHandler.reject(line, lineNum, data.offset + data.mark, error);
+        }
+    }
+
+    /**
+     * Moves to the start of the next line, unless the last parsed byte already ended the line
+     * @return index of the line end in the window, excluding the line ending, or -1 if a fed window ran out of data
+     */
+    private int skipLine() throws IOException {
+        InputBuffer data = this.data;
+        if (data.position > data.mark && (data.data.get(data.position - 1) & 0xFF) == lineEnding) {
+            return data.position - 1;
+        }
+        while (data.position < data.limit || data.fill()) {
+            if ((data.data.get(data.position++) & 0xFF) == lineEnding) {
+                return data.position - 1;
+            }
+        }
+        return data.feeding ? -1 : data.position;
+    }
+
+    /**
+     * Parses a line into the record view, applying {@link Transitions} of its bytes
+     */
+    private LtsvRecord parse(int lineNum) throws IOException {
+        InputBuffer data = this.data;
+        LtsvRecord result = record;
+        FieldSlice key = result.keys;
+        FieldSlice value = result.values;
+        int position;
+        int mode;
+        long started;
+        if (suspended) {
+            suspended = false;
+            position = suspendedPosition;
+            mode = suspendedMode;
+            started = metrics == null ? 0 : System.nanoTime() - suspendedNanos;
+        }
+        else {
+            result.clear(lineNum);
+            data.mark = data.position;
+            position = 0;
+            mode = KEY;
+            started = metrics == null ? 0 : System.nanoTime();
+        }
+        int[] table = transitions.table;
+        ByteBuffer buffer = data.data;
+        int cursor = data.position;
+        int limit = data.limit;
+        try {
+            while (mode != EOL) {
+                if (cursor == limit) {
+                    data.position = cursor;
+                    if (!data.fill()) {
+                        if (data.feeding) {
+                            // the rest of the line is not fed yet
+                            suspended = true;
+                            suspendedPosition = position;
+                            suspendedMode = mode;
+                            suspendedNanos = metrics == null ? 0 : System.nanoTime() - started;
+                            return null;
+                        }
+                        break;
+                    }
+                    buffer = data.data;
+                    cursor = data.position;
+                    limit = data.limit;
+                }
+                int c = buffer.get(cursor++) & 0xFF;
+                position++;
+                int transition = table[mode << 8 | c];
+                if ((transition & Transitions.CHECKED) != 0) {
+                    if ((transition & Transitions.IF_EMPTY_VALUE) != 0 && value.size() > 0) {
+                        transition = transitions.otherwise(mode, c);
+                    }
+                    check(transition, lineNum, position, c, key.size() == 0);
+                    if ((transition & Transitions.PUT_ENTRY) != 0) {
+                        putEntry(data, result, key, value, lineNum, position);
+                    }
+                    if ((transition & Transitions.PROJECT) != 0) {
+                        project(data, key, value);
+                    }
+                }
+                if ((transition & Transitions.APPEND_KEY) != 0) {
+                    key.append(data, position - 1, c);
+                    if ((transition & Transitions.RUN) != 0) {
+                        int stop = keyRun.skip(buffer, cursor, limit);
+                        if (stop > cursor) {
+                            key.appendRun(data, position, stop - cursor, keyRun.bits);
+                            position += stop - cursor;
+                            cursor = stop;
+                        }
+                    }
+                }
+                else if ((transition & Transitions.APPEND_VALUE) != 0) {
+                    value.append(data, position - 1, c);
+                    if ((transition & Transitions.RUN) != 0) {
+                        int stop = valueRun.skip(buffer, cursor, limit);
+                        if (stop > cursor) {
+                            value.appendRun(data, position, stop - cursor, valueRun.bits);
+                            position += stop - cursor;
+                            cursor = stop;
+                        }
+                    }
+                }
+                mode = transition & Transitions.MODE;
+            }
+        }
+        finally {
+            data.position = cursor;
+        }
+
+        // save last k-v pair
+        putEntry(data, result, key, value, lineNum, position);
+        if (schema != null) {
+            result.decodeFields(strict, metrics, stackTraces);
+        }
+        if (metrics != null) {
+            metrics.line(position, result.size(), System.nanoTime() - started);
+        }
+        return result;
+    }
+}
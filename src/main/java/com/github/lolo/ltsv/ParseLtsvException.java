@@ -9,4 +9,8 @@ public class ParseLtsvException extends RuntimeException {
     public ParseLtsvException(String message, Throwable cause) {
         super(message, cause);
     }
+
+    protected ParseLtsvException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, true, writableStackTrace);
+    }
 }
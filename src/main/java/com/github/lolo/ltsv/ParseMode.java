@@ -1,10 +1,24 @@
 package com.github.lolo.ltsv;
 
-public enum ParseMode {
-    KEY,
-    VALUE,
-    ENTRY_DELIMITER,
-    QUOTED,
-    ESCAPED,
-    EOL
+/**
+ * Parser state register bits <br>
+ * The state of a line is a single int: a base mode ({@link #KEY} or {@link #VALUE}) combined with at most one of
+ * {@link #QUOTED}, {@link #ESCAPED}, {@link #ENTRY_DELIMITER} or both {@link #QUOTED} and {@link #ESCAPED}. All the
+ * reachable combinations are small dense numbers, so the parser dispatches on them with a single table switch.
+ */
+final class ParseMode {
+
+    static final int KEY = 0;
+
+    static final int VALUE = 1;
+
+    static final int QUOTED = 2;
+
+    static final int ESCAPED = 4;
+
+    static final int ENTRY_DELIMITER = 8;
+
+    static final int EOL = 16;
+
+    private ParseMode() {}
 }
@@ -0,0 +1,437 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over rows of an input that can be read from any offset, like a byte array or a file <br>
+ * A split cuts the remaining byte range right after a line ending near its middle, so every split parses its own
+ * range, and ranges shorter than <b>chunkSize</b> are not split anymore. Same as in {@link ParallelLineIterator}, a
+ * cut may fall into a quoted or escaped value containing a line ending, so a range is parsed ahead as if its cut was
+ * a line start, and its rows are passed on only when the previous range really ended there. Otherwise the range is
+ * parsed again from the real end of the previous range. <br>
+ * Every cut is a {@link Boundary} that the range before it completes with its real end and line count. A range that
+ * needs its start waits for the range before it while that one is being parsed, otherwise it scans the lines before
+ * the cut itself. A stream running on a fork/join pool traverses every range it splits off, so there a range also
+ * waits for the range before it to be taken, instead of scanning it twice. Lines of a range parsed ahead are not
+ * reported until its start is known, so if any of them fails, the range is parsed again with the right line numbers.
+ */
+final class RangeSpliterator implements Spliterator<Map<String, String>> {
+
+    private final LtsvParser parser;
+
+    private final Source source;
+
+    private final long to;
+
+    private long from;
+
+    private Boundary start;
+
+    private final Boundary end;
+
+    private InputBuffer data;
+
+    private ParseCursor cursor;
+
+    private int line;
+
+    private boolean done;
+
+    private RangeSpliterator(LtsvParser parser, Source source, long from, long to, Boundary start, Boundary end) {
+        this.parser = parser;
+        this.source = source;
+        this.from = from;
+        this.to = to;
+        this.start = start;
+        this.end = end;
+    }
+
+    static RangeSpliterator of(LtsvParser parser, byte[] bytes) {
+        return of(parser, new Source() {
+            @Override
+            public InputBuffer open(long from) {
+                InputBuffer data = InputBuffer.wrap(bytes);
+                data.mark = (int) from;
+                data.position = (int) from;
+                return data;
+            }
+
+            @Override
+            public long nextLineStart(long from) {
+                for (int i = (int) from; i < bytes.length; i++) {
+                    if ((bytes[i] & 0xFF) == parser.lineEnding) {
+                        return i + 1;
+                    }
+                }
+                return bytes.length;
+            }
+        }, bytes.length);
+    }
+
+    static RangeSpliterator of(LtsvParser parser, Path path) throws IOException {
+        return of(parser, new Source() {
+            @Override
+            public InputBuffer open(long from) throws IOException {
+                return InputBuffer.map(path, from, InputBuffer.MAP_WINDOW);
+            }
+
+            @Override
+            public long nextLineStart(long from) throws IOException {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer block = ByteBuffer.allocate(ParallelLineIterator.SCAN_BLOCK);
+                    return ParallelLineIterator.nextLineStart(channel, block, from, channel.size(), parser.lineEnding);
+                }
+            }
+        }, Files.size(path));
+    }
+
+    private static RangeSpliterator of(LtsvParser parser, Source source, long size) {
+        Boundary start = new Boundary(0, null);
+        start.complete(0, 0);
+        return new RangeSpliterator(parser, source, 0, size, start, new Boundary(size, start));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Map<String, String>> action) {
+        try {
+            if (done) {
+                return false;
+            }
+            if (cursor == null) {
+                end.start(false);
+                open(resolve(start, false));
+            }
+            while (data.offset + data.position < to && data.hasRemaining()) {
+                LtsvRecord record = cursor.next(line++);
+                if (record != null) {
+                    action.accept(record.toMap());
+                    return true;
+                }
+            }
+            finish();
+            return false;
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super Map<String, String>> action) {
+        if (done || cursor != null) {
+            while (tryAdvance(action)) {
+                // rows are passed to the action
+            }
+            return;
+        }
+        end.start(true);
+        try {
+            Boundary known = start.end() >= 0 ? start : null;
+            if (known == null) {
+                Ahead ahead = parseAhead();
+                known = resolve(start, Thread.currentThread() instanceof ForkJoinWorkerThread);
+                if (ahead.valid && known.end() == from) {
+                    end.complete(ahead.end, known.line() + ahead.lines);
+                    done = true;
+                    if (ahead.metrics != null) {
+                        parser.metrics.add(ahead.metrics);
+                    }
+                    ahead.rows.forEach(action);
+                    return;
+                }
+            }
+            open(known);
+            while (data.offset + data.position < to && data.hasRemaining()) {
+                LtsvRecord record = cursor.next(line++);
+                if (record != null) {
+                    action.accept(record.toMap());
+                }
+            }
+            finish();
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+        finally {
+            end.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Spliterator<Map<String, String>> trySplit() {
+        if (done || cursor != null || to - from <= parser.chunkSize) {
+            return null;
+        }
+        long cut;
+        try {
+            cut = source.nextLineStart(from + (to - from) / 2);
+        }
+        catch (IOException ex) {
+            throw new ParseLtsvException("Error reading data source", ex);
+        }
+        if (cut >= to) {
+            return null;
+        }
+        Boundary boundary = new Boundary(cut, start);
+        RangeSpliterator prefix = new RangeSpliterator(parser, source, from, cut, start, boundary);
+        from = cut;
+        start = boundary;
+        end.previous = boundary;
+        return prefix;
+    }
+
+    /**
+     * @return number of bytes left in the range
+     */
+    @Override
+    public long estimateSize() {
+        if (done) {
+            return 0;
+        }
+        return Math.max(0, to - (cursor == null ? from : data.offset + data.position));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private void open(Boundary known) throws IOException {
+        data = source.open(known.end());
+        cursor = new ParseCursor(parser, data);
+        line = known.line();
+    }
+
+    private void finish() {
+        end.complete(data.offset + data.position, line);
+        data.release();
+        done = true;
+    }
+
+    /**
+     * Parses the range as if it started at a line start. Metrics are counted apart and added only if the rows are
+     * used, and parsing stops at the first rejected line, because its line number is not known yet
+     */
+    private Ahead parseAhead() throws IOException {
+        Ahead ahead = new Ahead(parser.metrics == null ? null : new LtsvMetrics());
+        InputBuffer data = source.open(from);
+        ParseCursor cursor = new ParseCursor(parser, data, parser.deadLetterHandler == null ? null : ahead::reject, ahead.metrics);
+        try {
+            while (ahead.valid && data.offset + data.position < to && data.hasRemaining()) {
+                LtsvRecord record = cursor.next(ahead.lines++);
+                if (record != null) {
+                    ahead.rows.add(record.toMap());
+                }
+            }
+        }
+        catch (ParseLtsvException ex) {
+            ahead.valid = false;
+        }
+        ahead.end = data.offset + data.position;
+        data.release();
+        return ahead;
+    }
+
+    /**
+     * Finds the real start of the range ending at a given boundary, waiting for the range before it while that one is
+     * parsed and scanning the lines before it otherwise
+     * @param untaken if <b>true</b>, wait for ranges no thread has taken yet as well
+     * @return a completed boundary
+     */
+    private Boundary resolve(Boundary boundary, boolean untaken) throws IOException {
+        ArrayDeque<Boundary> unresolved = new ArrayDeque<>();
+        Boundary known = boundary;
+        while (!known.await(untaken)) {
+            unresolved.push(known);
+            known = known.previous;
+        }
+        while (!unresolved.isEmpty()) {
+            Boundary next = unresolved.pop();
+            scan(known, next);
+            known = next;
+        }
+        return known;
+    }
+
+    /**
+     * Skips all lines starting between two boundaries to complete the second one. Nothing is reported or counted,
+     * because the range before the second boundary does it when it is parsed
+     */
+    private void scan(Boundary known, Boundary next) throws IOException {
+        long position = known.end();
+        int lineNum = known.line();
+        if (position < next.cut) {
+            InputBuffer data = source.open(position);
+            ParseCursor cursor = new ParseCursor(parser, data, null, null);
+            while (data.offset + data.position < next.cut && data.hasRemaining()) {
+                try {
+                    cursor.next(lineNum);
+                }
+                catch (ParseLtsvException ex) {
+                    // the line is skipped anyway
+                }
+                lineNum++;
+            }
+            position = data.offset + data.position;
+            data.release();
+        }
+        next.complete(position, lineNum);
+    }
+
+    /**
+     * An input that can be read from any offset
+     */
+    private interface Source {
+
+        InputBuffer open(long from) throws IOException;
+
+        /**
+         * @return offset right after the first line ending at or after <b>from</b>, or the input size
+         */
+        long nextLineStart(long from) throws IOException;
+    }
+
+    /**
+     * Rows of a range parsed before its real start is known
+     */
+    private static final class Ahead {
+
+        private final List<Map<String, String>> rows = new ArrayList<>();
+
+        private final LtsvMetrics metrics;
+
+        private boolean valid = true;
+
+        private int lines;
+
+        private long end;
+
+        private Ahead(LtsvMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        private void reject(byte[] line, int lineNum, long position, ParseLtsvException error) {
+            valid = false;
+        }
+    }
+
+    /**
+     * A cut between two ranges. It is completed with the real end of the last line starting before the cut, which
+     * is where the range after it really starts, and with the number of lines before that
+     */
+    static final class Boundary {
+
+        private final long cut;
+
+        /**
+         * Start of the range ending at this cut. It moves forward when the range is split, and any start before the
+         * cut leads to the same end
+         */
+        private volatile Boundary previous;
+
+        private long end = -1;
+
+        private int line;
+
+        /**
+         * <b>true</b> once the range ending at this cut is taken by a thread
+         */
+        private boolean started;
+
+        /**
+         * <b>true</b> while the range ending at this cut is parsed to the end, so it completes the boundary or
+         * releases waiting threads if it fails
+         */
+        private boolean running;
+
+        private Boundary(long cut, Boundary previous) {
+            this.cut = cut;
+            this.previous = previous;
+        }
+
+        private synchronized long end() {
+            return end;
+        }
+
+        private synchronized int line() {
+            return line;
+        }
+
+        private synchronized void complete(long end, int line) {
+            if (this.end < 0) {
+                this.end = end;
+                this.line = line;
+            }
+            notifyAll();
+        }
+
+        private synchronized void start(boolean running) {
+            this.started = true;
+            this.running = running;
+            notifyAll();
+        }
+
+        private synchronized void release() {
+            running = false;
+            notifyAll();
+        }
+
+        /**
+         * Waits while the range ending at this cut is parsed
+         * @param untaken if <b>true</b>, wait while the range is not taken by any thread as well
+         * @return <b>true</b> if the boundary is completed
+         */
+        private boolean await(boolean untaken) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        synchronized (Boundary.this) {
+                            while (!isReleasable()) {
+                                Boundary.this.wait();
+                            }
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        synchronized (Boundary.this) {
+                            return end >= 0 || !running && (started || !untaken);
+                        }
+                    }
+                });
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ParseLtsvException("Interrupted while waiting for a previous range", ex);
+            }
+            return end() >= 0;
+        }
+    }
+}
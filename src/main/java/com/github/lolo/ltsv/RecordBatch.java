@@ -0,0 +1,275 @@
+package com.github.lolo.ltsv;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A reusable buffer of parsed lines filled by {@link LtsvParser#parseBatch(InputStream, RecordBatch, int)} <br>
+ * Key and value bytes of all lines are copied one after another into a single shared arena, and entries are
+ * described by column-like arrays of offsets and lengths. Arrays only grow, so once a batch has seen its largest
+ * lines, refilling it allocates nothing. Strings are decoded only when asked for. <br>
+ * A batch also remembers the input it was last filled from, so consecutive calls with the same input continue where
+ * the previous call stopped. A batch is not thread-safe.
+ * <pre>
+ *     RecordBatch batch = new RecordBatch();
+ *     while (parser.parseBatch(in, batch, 1000) &gt; 0) {
+ *         for (int i = 0; i &lt; batch.size(); i++) {
+ *             String srcip = batch.get(i, "srcip");
+ *         }
+ *     }
+ * </pre>
+ */
+public final class RecordBatch {
+
+    private static final int NULL = -1;
+
+    private final LtsvHandler writer = new LtsvHandler() {
+        @Override
+        public void startRecord(int line) {
+            if (size + 1 == recordStarts.length) {
+                recordStarts = Arrays.copyOf(recordStarts, recordStarts.length << 1);
+                lineNumbers = Arrays.copyOf(lineNumbers, recordStarts.length);
+            }
+            lineNumbers[size] = line;
+        }
+
+        @Override
+        public void field(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+            int field = recordStarts[size] + pending;
+            if (field == keyOffsets.length) {
+                int capacity = keyOffsets.length << 1;
+                keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+                keyLengths = Arrays.copyOf(keyLengths, capacity);
+                valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+                valueLengths = Arrays.copyOf(valueLengths, capacity);
+            }
+            keyOffsets[field] = arenaSize;
+            keyLengths[field] = key == null ? NULL : copy(key, keyOffset, keyLength);
+            valueOffsets[field] = arenaSize;
+            valueLengths[field] = value == null ? NULL : copy(value, valueOffset, valueLength);
+            pending++;
+        }
+
+        @Override
+        public void endRecord() {
+            recordStarts[size + 1] = recordStarts[size] + pending;
+            pending = 0;
+            size++;
+        }
+    };
+
+    private byte[] arena = new byte[4096];
+
+    private int arenaSize;
+
+    /**
+     * Index of the first entry of every record, the entry after the last record included
+     */
+    private int[] recordStarts = new int[64];
+
+    private int[] lineNumbers = new int[64];
+
+    private int[] keyOffsets = new int[256];
+
+    private int[] keyLengths = new int[256];
+
+    private int[] valueOffsets = new int[256];
+
+    private int[] valueLengths = new int[256];
+
+    private int size;
+
+    /**
+     * Entries of a record being filled
+     */
+    private int pending;
+
+    private Charset charset;
+
+    final InputBinding input = new InputBinding();
+
+    /**
+     * @return number of records in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @return zero-based number of the line a record was parsed from, counted from the start of the input
+     */
+    public int lineNumber(int record) {
+        checkRecord(record);
+        return lineNumbers[record];
+    }
+
+    /**
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @return number of entries in a record. Duplicate keys are counted as separate entries
+     */
+    public int fieldCount(int record) {
+        checkRecord(record);
+        return recordStarts[record + 1] - recordStarts[record];
+    }
+
+    /**
+     * Returns a key of an entry
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param field entry index from 0 to {@link #fieldCount(int)} exclusive
+     * @return decoded key or <b>null</b> for a value without a key (lenient mode only)
+     */
+    public String key(int record, int field) {
+        int i = index(record, field);
+        return decode(keyOffsets[i], keyLengths[i]);
+    }
+
+    /**
+     * Returns a value of an entry
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param field entry index from 0 to {@link #fieldCount(int)} exclusive
+     * @return decoded value or <b>null</b> for an empty value
+     */
+    public String value(int record, int field) {
+        int i = index(record, field);
+        return decode(valueOffsets[i], valueLengths[i]);
+    }
+
+    /**
+     * Returns a value for a given key. If the key occurs several times, the last one wins, exactly as in
+     * {@link #toMap(int)}
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param key a key to look for, <b>null</b> looks for a value without a key
+     * @return decoded value or <b>null</b> if there is no such key or the value is empty
+     */
+    public String get(int record, String key) {
+        checkRecord(record);
+        byte[] encoded = key == null ? null : key.getBytes(charset);
+        for (int i = recordStarts[record + 1] - 1; i >= recordStarts[record]; i--) {
+            if (matches(encoded, keyOffsets[i], keyLengths[i])) {
+                return decode(valueOffsets[i], valueLengths[i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies a record into a new map
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @return a new HashMap with all entries of a record
+     */
+    public Map<String, String> toMap(int record) {
+        checkRecord(record);
+        Map<String, String> result = new HashMap<>();
+        for (int i = recordStarts[record]; i < recordStarts[record + 1]; i++) {
+            result.put(decode(keyOffsets[i], keyLengths[i]), decode(valueOffsets[i], valueLengths[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the array holding raw bytes of all keys and values of this batch. The array is reused and may be
+     * replaced by a larger one when the batch is filled again
+     * @return the shared arena
+     */
+    public byte[] arena() {
+        return arena;
+    }
+
+    /**
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param field entry index from 0 to {@link #fieldCount(int)} exclusive
+     * @return start of key bytes in the {@link #arena()}
+     */
+    public int keyOffset(int record, int field) {
+        return keyOffsets[index(record, field)];
+    }
+
+    /**
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param field entry index from 0 to {@link #fieldCount(int)} exclusive
+     * @return length of key bytes or -1 for a value without a key
+     */
+    public int keyLength(int record, int field) {
+        return keyLengths[index(record, field)];
+    }
+
+    /**
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param field entry index from 0 to {@link #fieldCount(int)} exclusive
+     * @return start of value bytes in the {@link #arena()}
+     */
+    public int valueOffset(int record, int field) {
+        return valueOffsets[index(record, field)];
+    }
+
+    /**
+     * @param record record index from 0 to {@link #size()} exclusive
+     * @param field entry index from 0 to {@link #fieldCount(int)} exclusive
+     * @return length of value bytes or -1 for an empty value
+     */
+    public int valueLength(int record, int field) {
+        return valueLengths[index(record, field)];
+    }
+
+    /**
+     * Empties the batch before it is filled by a given parser from a given input
+     */
+    void reset(LtsvParser parser, InputStream source) {
+        input.bind(parser, source);
+        charset = parser.charset;
+        size = 0;
+        pending = 0;
+        arenaSize = 0;
+    }
+
+    void append(LtsvRecord record) {
+        record.emit(writer);
+    }
+
+    private int copy(byte[] data, int offset, int length) {
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length << 1, arenaSize + length));
+        }
+        System.arraycopy(data, offset, arena, arenaSize, length);
+        arenaSize += length;
+        return length;
+    }
+
+    private boolean matches(byte[] key, int offset, int length) {
+        if (key == null || length == NULL) {
+            return key == null && length == NULL;
+        }
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int offset, int length) {
+        return length == NULL ? null : new String(arena, offset, length, charset);
+    }
+
+    private int index(int record, int field) {
+        checkRecord(record);
+        int count = recordStarts[record + 1] - recordStarts[record];
+        if (field < 0 || field >= count) {
+            throw new IndexOutOfBoundsException(String.format("Index [%d] is out of record bounds [%d]", field, count));
+        }
+        return recordStarts[record] + field;
+    }
+
+    private void checkRecord(int record) {
+        if (record < 0 || record >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index [%d] is out of batch bounds [%d]", record, size));
+        }
+    }
+}
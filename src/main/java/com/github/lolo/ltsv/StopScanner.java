@@ -0,0 +1,86 @@
+package com.github.lolo.ltsv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Skips runs of ordinary key or value bytes eight at a time <br>
+ * A window word is XOR-ed with every stop byte repeated in all eight lanes, which turns lanes equal to the stop byte
+ * into zero lanes, and zero lanes of all the words are detected at once with carry-free SIMD-within-a-register
+ * arithmetic. So the parser state machine only sees the byte a run stops at, instead of every byte of a run. <br>
+ * A stop is just a hint: the state machine handles every byte anyway, so a delimiter that does not fit in a byte
+ * stops runs at its low byte, which costs a bit of speed and never changes the result.
+ */
+final class StopScanner {
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final long stop1;
+
+    private final long stop2;
+
+    private final long stop3;
+
+    private final long stop4;
+
+    private final long stop5;
+
+    /**
+     * High bits of all bytes skipped by the last call, <b>0</b> if they are all ASCII
+     */
+    int bits;
+
+    /**
+     * @param stops from one to five stop bytes
+     */
+    StopScanner(int... stops) {
+        this.stop1 = lanes(stops[0]);
+        this.stop2 = lanes(stops[Math.min(1, stops.length - 1)]);
+        this.stop3 = lanes(stops[Math.min(2, stops.length - 1)]);
+        this.stop4 = lanes(stops[Math.min(3, stops.length - 1)]);
+        this.stop5 = lanes(stops[Math.min(4, stops.length - 1)]);
+    }
+
+    /**
+     * Looks for a stop byte in whole words of the window starting at a given index
+     * @param buffer window to scan
+     * @param from index to start at
+     * @param limit window limit
+     * @return index of the first stop byte, or the index where less than a word is left before it is found
+     */
+    int skip(ByteBuffer buffer, int from, int limit) {
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long seen = 0;
+        int index = from;
+        for (; index <= limit - 8; index += 8) {
+            long word = buffer.getLong(index);
+            long found = ~(nonZero(word ^ stop1) & nonZero(word ^ stop2) & nonZero(word ^ stop3)
+                    & nonZero(word ^ stop4) & nonZero(word ^ stop5)) & HIGH_BITS;
+            if (found != 0) {
+                // bytes preceding the stop byte in memory are the high lanes of a big-endian word
+                int skipped = (bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found)) >>> 3;
+                if (skipped > 0) {
+                    seen |= bigEndian ? word & -1L << (64 - (skipped << 3)) : word & -1L >>> (64 - (skipped << 3));
+                }
+                index += skipped;
+                break;
+            }
+            seen |= word;
+        }
+        bits = (seen & HIGH_BITS) == 0 ? 0 : 0x80;
+        return index;
+    }
+
+    private static long lanes(int c) {
+        return (c & 0xFFL) * 0x0101010101010101L;
+    }
+
+    /**
+     * @return a word with the high bit set in every lane that is not zero
+     */
+    private static long nonZero(long x) {
+        return ((x & LOW_BITS) + LOW_BITS) | x;
+    }
+}
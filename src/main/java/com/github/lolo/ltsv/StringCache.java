@@ -0,0 +1,226 @@
+package com.github.lolo.ltsv;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of decoded strings looked up by their raw bytes <br>
+ * A hit returns a canonical String instance without decoding or allocating anything. The cache is a fixed size
+ * 4-way set associative table: a byte sequence may only live in one set chosen by its hash, and when the set is full
+ * a victim is chosen with the CLOCK (second chance) policy. So the cache never grows, whatever the input is. A string
+ * being parsed is looked up by its characters, which hash the same way as bytes of ASCII text, so both kinds of input
+ * share entries of ASCII strings. <br>
+ * The cache is shared by all threads using a parser and takes no locks: entries are immutable apart from a reference
+ * bit, so a racing reader sees either a complete old entry or a complete new one. Lost updates of reference bits or of
+ * the clock hand only make eviction less precise, and counters are kept in {@link LongAdder}s.
+ */
+final class StringCache {
+
+    private static final int WAYS = 4;
+
+    static final int MAX_CAPACITY = 1 << 24;
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    private int hand;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    StringCache(int capacity) {
+        checkCapacity(capacity);
+        // round up to a power of two
+        int size = Math.max(WAYS, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns a string for a given byte sequence, decoding and caching it on a miss
+     * @param data source array
+     * @param offset sequence start
+     * @param length sequence length
+     * @param charset charset to decode a missing sequence with
+     * @return cached or newly decoded string
+     */
+    String get(byte[] data, int offset, int length, Charset charset) {
+        int hash = hash(data, offset, length);
+        String value = find(hash, data, offset, length);
+        return value != null ? value : put(hash, data, offset, length, charset);
+    }
+
+    /**
+     * Returns a string for a given region of characters, copying and caching it on a miss
+     * @param data source characters
+     * @param start region start
+     * @param end region end
+     * @param charset charset to encode a missing region with, so it can be found by bytes as well
+     * @return cached or newly created string
+     */
+    String get(CharSequence data, int start, int end, Charset charset) {
+        int hash = hash(data, start, end);
+        String value = find(hash, data, start, end);
+        return value != null ? value : put(hash, data, start, end, charset);
+    }
+
+    /**
+     * Looks up a byte sequence and counts a hit if it is found
+     * @return cached string or <b>null</b> if there is no such sequence in the cache
+     */
+    String find(int hash, byte[] data, int offset, int length) {
+        int set = hash & mask & -WAYS;
+        for (int i = set; i < set + WAYS; i++) {
+            Entry entry = entries[i];
+            if (entry != null && entry.hash == hash && entry.matches(data, offset, length)) {
+                entry.referenced = true;
+                hits.increment();
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a byte sequence that was not found, caches it and counts a miss
+     * @return newly decoded string
+     */
+    String put(int hash, byte[] data, int offset, int length, Charset charset) {
+        misses.increment();
+        String value = new String(data, offset, length, charset);
+        store(hash, Arrays.copyOfRange(data, offset, offset + length), value);
+        return value;
+    }
+
+    private void store(int hash, byte[] bytes, String value) {
+        int set = hash & mask & -WAYS;
+        int free = -1;
+        for (int i = set; i < set + WAYS; i++) {
+            if (entries[i] == null) {
+                free = i;
+                break;
+            }
+        }
+        if (free < 0) {
+            free = victim(set);
+            evictions.increment();
+        }
+        entries[free] = new Entry(bytes, hash, value);
+    }
+
+    /**
+     * Looks up a region of characters and counts a hit if it is found
+     * @return cached string or <b>null</b> if there is no such string in the cache
+     */
+    String find(int hash, CharSequence data, int start, int end) {
+        int set = hash & mask & -WAYS;
+        for (int i = set; i < set + WAYS; i++) {
+            Entry entry = entries[i];
+            if (entry != null && entry.hash == hash && entry.matches(data, start, end)) {
+                entry.referenced = true;
+                hits.increment();
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies a region of characters that was not found, caches it and counts a miss
+     * @return newly created string
+     */
+    String put(int hash, CharSequence data, int start, int end, Charset charset) {
+        misses.increment();
+        String value = data.subSequence(start, end).toString();
+        store(hash, value.getBytes(charset), value);
+        return value;
+    }
+
+    CacheStats stats() {
+        return new CacheStats(entries.length, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    static int checkCapacity(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException(String.format("Cache capacity must be in range [1, %d]", MAX_CAPACITY));
+        }
+        return capacity;
+    }
+
+    private int victim(int set) {
+        // two sweeps are enough to find an unreferenced entry, unless other threads keep referencing them
+        int i = set;
+        for (int step = 0; step < 2 * WAYS; step++) {
+            i = set + (hand++ & (WAYS - 1));
+            Entry entry = entries[i];
+            if (entry == null || !entry.referenced) {
+                return i;
+            }
+            entry.referenced = false;
+        }
+        return i;
+    }
+
+    static int hash(byte[] data, int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        // spread higher bits to the set index
+        return hash ^ (hash >>> 16);
+    }
+
+    static int hash(CharSequence data, int start, int end) {
+        int hash = end - start;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + data.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+
+        private final byte[] bytes;
+
+        private final int hash;
+
+        private final String value;
+
+        private boolean referenced;
+
+        private Entry(byte[] bytes, int hash, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        private boolean matches(byte[] data, int offset, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(CharSequence data, int start, int end) {
+            if (value.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) != data.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
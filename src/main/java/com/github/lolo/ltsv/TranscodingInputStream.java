@@ -0,0 +1,162 @@
+package com.github.lolo.ltsv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Re-encodes a stream from a given charset to UTF-8 on the fly <br>
+ * The parser scans bytes, so it can only work with charsets where delimiters are single ASCII bytes that never occur
+ * inside other characters. Input in any other charset, like UTF-16 or Shift_JIS, is transcoded by this stream.
+ * Malformed or unmappable input is replaced the same way {@link String#String(byte[], Charset)} does, and so is an
+ * incomplete character at the end of the source. A tailed source may still be written after it reported the end of
+ * data, so there an incomplete character is kept until more bytes arrive.
+ */
+final class TranscodingInputStream extends InputStream {
+
+    private static final int CAPACITY = 8 * 1024;
+
+    private final InputStream source;
+
+    private final CharsetDecoder decoder;
+
+    private final CharsetEncoder encoder;
+
+    private final byte[] input = new byte[CAPACITY];
+
+    private final ByteBuffer in = ByteBuffer.wrap(input);
+
+    private final CharBuffer chars = CharBuffer.allocate(CAPACITY);
+
+    private final ByteBuffer out = ByteBuffer.allocate(CAPACITY * 3);
+
+    private final boolean tailing;
+
+    private boolean ended;
+
+    /**
+     * @param tailing if <b>true</b>, the source may have more data after it reported the end of data
+     */
+    TranscodingInputStream(InputStream source, Charset charset, boolean tailing) {
+        this.source = source;
+        this.tailing = tailing;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        in.limit(0);
+        chars.limit(0);
+        out.limit(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        while (!out.hasRemaining()) {
+            if (!transcode()) {
+                return -1;
+            }
+        }
+        return out.get() & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!out.hasRemaining()) {
+            if (!transcode()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, out.remaining());
+        out.get(b, off, count);
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        return out.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Encodes pending characters into the output buffer, decoding and reading more of the source when there are
+     * none. A pending high surrogate waits for its pair, as well as an incomplete sequence of source bytes, until
+     * the source reports the end of data
+     * @return <b>false</b> if the source reported the end of data and nothing was transcoded
+     */
+    private boolean transcode() throws IOException {
+        if (ended) {
+            return false;
+        }
+        out.clear();
+        while (true) {
+            encoder.encode(chars, out, false);
+            if (out.position() > 0) {
+                break;
+            }
+            int pending = chars.remaining();
+            chars.compact();
+            decoder.decode(in, chars, false);
+            chars.flip();
+            if (chars.remaining() > pending) {
+                continue;
+            }
+            in.compact();
+            int read = source.read(input, in.position(), in.remaining());
+            if (read < 0) {
+                in.flip();
+                if (tailing) {
+                    out.flip();
+                    return false;
+                }
+                return end();
+            }
+            in.position(in.position() + read);
+            in.flip();
+        }
+        out.flip();
+        return true;
+    }
+
+    /**
+     * Transcodes whatever is left at the end of data, replacing an incomplete character
+     * @return <b>false</b> if nothing was left
+     */
+    private boolean end() {
+        ended = true;
+        chars.compact();
+        decoder.decode(in, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        encoder.encode(chars, out, true);
+        encoder.flush(out);
+        out.flip();
+        return out.hasRemaining();
+    }
+}
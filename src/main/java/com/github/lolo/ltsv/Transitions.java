@@ -0,0 +1,237 @@
+package com.github.lolo.ltsv;
+
+import static com.github.lolo.ltsv.ParseMode.*;
+
+/**
+ * The line state machine shared by {@link ParseCursor} and {@link CharCursor} <br>
+ * A transition tells what to do with the next character in a given {@link ParseMode}: the next mode in the low bits
+ * and action flags above them. Transitions of all single-byte characters are computed once per parser into a table
+ * indexed by <b>mode &lt;&lt; 8 | character</b>, so a cursor looks up a byte instead of comparing it with every
+ * delimiter. Other characters are never delimiters of a byte parser, but a character parser may have them, so their
+ * transitions are computed on the fly. <br>
+ * Cursors differ only in how they read characters and collect fields, see {@link LineCursor} for the error handling
+ * they share.
+ */
+final class Transitions {
+
+    static final int MODE = 0x1F;
+
+    /**
+     * Adds the entry collected so far to the row
+     */
+    static final int PUT_ENTRY = 1 << 5;
+
+    /**
+     * Decides if the value of a complete key is collected at all
+     */
+    static final int PROJECT = 1 << 6;
+
+    static final int APPEND_KEY = 1 << 7;
+
+    static final int APPEND_VALUE = 1 << 8;
+
+    /**
+     * The appended character may be followed by a run of plain characters
+     */
+    static final int RUN = 1 << 9;
+
+    /**
+     * The transition holds only for an empty value, otherwise see {@link #otherwise(int, int)}
+     */
+    static final int IF_EMPTY_VALUE = 1 << 10;
+
+    /**
+     * The transition fails with {@link LtsvError#EMPTY_KEY} if the key is empty
+     */
+    static final int EMPTY_KEY = 1 << 11;
+
+    /**
+     * The error, if any, reports the character as its token
+     */
+    static final int TOKEN = 1 << 12;
+
+    /**
+     * Error of a transition, 1 + {@link LtsvError} ordinal. It is thrown in strict mode and counted as a recovery in
+     * lenient mode, which then goes on with the transition
+     */
+    static final int ERROR_SHIFT = 16;
+
+    /**
+     * Flags a cursor checks before appending, rarely set in plain keys and values
+     */
+    static final int CHECKED = PUT_ENTRY | PROJECT | IF_EMPTY_VALUE | EMPTY_KEY | 0xFF << ERROR_SHIFT;
+
+    private static final int CHARACTERS = 256;
+
+    private final int entryDelimiter;
+
+    private final int kvDelimiter;
+
+    private final int escapeChar;
+
+    private final int quoteChar;
+
+    private final int lineEnding;
+
+    private final boolean strict;
+
+    final int[] table;
+
+    Transitions(int entryDelimiter, int kvDelimiter, int escapeChar, int quoteChar, int lineEnding, boolean strict) {
+        this.entryDelimiter = entryDelimiter;
+        this.kvDelimiter = kvDelimiter;
+        this.escapeChar = escapeChar;
+        this.quoteChar = quoteChar;
+        this.lineEnding = lineEnding;
+        this.strict = strict;
+        this.table = new int[EOL << 8];
+        for (int mode = 0; mode < EOL; mode++) {
+            for (int c = 0; c < CHARACTERS; c++) {
+                table[mode << 8 | c] = transition(mode, c, true);
+            }
+        }
+    }
+
+    /**
+     * @return transition of a given character in a given mode
+     */
+    int of(int mode, int c) {
+        return c < CHARACTERS ? table[mode << 8 | c] : transition(mode, c, true);
+    }
+
+    /**
+     * @return transition of a given character in a given mode after a transition with {@link #IF_EMPTY_VALUE} that
+     * did not hold
+     */
+    int otherwise(int mode, int c) {
+        return transition(mode, c, false);
+    }
+
+    /**
+     * From now on in comments:
+     * <ul>
+     *     <li>key = kkk</li>
+     *     <li>value = vvv</li>
+     *     <li>entryDelimiter = _</li>
+     *     <li>kvDelimiter = :</li>
+     *     <li>escapeChar = \</li>
+     *     <li>quoteChar = "</li>
+     *     <li>lineEnding = n</li>
+     * </ul>
+     */
+    private int transition(int mode, int c, boolean emptyValue) {
+        switch (mode) {
+            case KEY: {
+                // kkk:vvvn
+                //        ^
+                if (c == lineEnding) {
+                    return EOL;
+                }
+                // kkk_kkk:vvv
+                //    ^
+                if (c == entryDelimiter) {
+                    return error(LtsvError.KEY_WITHOUT_VALUE, 0) | KEY | APPEND_KEY;
+                }
+                // k"kk:vvv
+                //  ^
+                if (c == quoteChar) {
+                    return error(LtsvError.UNEXPECTED_QUOTE, TOKEN) | KEY | APPEND_KEY;
+                }
+                // k\kk:vvv
+                //  ^
+                if (c == escapeChar) {
+                    return error(LtsvError.UNEXPECTED_ESCAPE, TOKEN) | KEY | ESCAPED;
+                }
+                // kkk:vvv
+                //    ^
+                if (c == kvDelimiter) {
+                    return (strict ? EMPTY_KEY : 0) | PROJECT | VALUE;
+                }
+                // kkk:vvv   then   kkkkkkkkk:vvv
+                //  ^                ^^^^^^^^
+                return KEY | APPEND_KEY | RUN;
+            }
+            case VALUE: {
+                // kkk:vvvn
+                //        ^
+                if (c == lineEnding) {
+                    return EOL;
+                }
+                // kkk:"vvv"
+                //     ^
+                if (c == quoteChar && emptyValue) {
+                    return IF_EMPTY_VALUE | VALUE | QUOTED;
+                }
+                // kkk:v\vv
+                //      ^
+                if (c == escapeChar) {
+                    return VALUE | ESCAPED;
+                }
+                // kkk:vvv_kkk:vvv   or   kkk:"vvv"_kkk:vvv
+                //        ^                        ^
+                if (c == entryDelimiter) {
+                    return VALUE | ENTRY_DELIMITER;
+                }
+                // kkk:vvv   then   kkk:vvvvvvvvv_kkk:vvv
+                //      ^                ^^^^^^^^
+                return VALUE | APPEND_VALUE | RUN;
+            }
+            // kkk:v\vv   or   kkk:"v\vv"
+            //       ^                ^
+            case KEY | ESCAPED:
+            case VALUE | ESCAPED:
+            case KEY | QUOTED | ESCAPED:
+            case VALUE | QUOTED | ESCAPED: {
+                int next = mode & ~ESCAPED;
+                return next | (next == KEY ? APPEND_KEY : APPEND_VALUE);
+            }
+            // kkk:"vvv"   or   kkk:v\vv   or   kkk:"vvv"
+            //       ^               ^                  ^
+            case KEY | QUOTED:
+            case VALUE | QUOTED: {
+                if (c == escapeChar) {
+                    return mode | ESCAPED;
+                }
+                if (c == quoteChar) {
+                    return strict ? VALUE | ENTRY_DELIMITER : mode & ~QUOTED;
+                }
+                return mode | (mode == (KEY | QUOTED) ? APPEND_KEY : APPEND_VALUE);
+            }
+            case VALUE | ENTRY_DELIMITER: {
+                // kkk:vvv_n
+                //         ^
+                if (c == lineEnding) {
+                    return EOL;
+                }
+                // kkk_kkk:vvv   or   kkk__kkk:vvv
+                //     ^                  ^
+                if (c == entryDelimiter) {
+                    return mode;
+                }
+                // kkk:vvv_\kkk:vvv
+                //         ^
+                if (c == escapeChar) {
+                    return error(LtsvError.UNEXPECTED_ESCAPE, TOKEN) | PUT_ENTRY | KEY;
+                }
+                // kkk:vvv_"kkk":vvv
+                //         ^
+                if (c == quoteChar) {
+                    return error(LtsvError.UNEXPECTED_QUOTE, TOKEN) | PUT_ENTRY | KEY | QUOTED;
+                }
+                // kkk_:vvv
+                //     ^
+                if (c == kvDelimiter) {
+                    return PUT_ENTRY | PROJECT | VALUE;
+                }
+                return PUT_ENTRY | KEY | APPEND_KEY;
+            }
+            default:
+                // modes that are never reached
+                return EOL;
+        }
+    }
+
+    private static int error(LtsvError error, int token) {
+        return (error.ordinal() + 1) << ERROR_SHIFT | token;
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.lolo.ltsv;
+
+import java.nio.charset.Charset;
+
+/**
+ * Deduplicates decoded values of low-cardinality keys <br>
+ * All admitted values share one bounded {@link StringCache}, so a value seen before is returned as the same String
+ * instance. Keys to admit are either declared up front, or detected adaptively: keys are tracked in hash buckets, and
+ * a bucket whose values hit the cache less than half of the time during a window of lookups is switched off for a
+ * while. This way high-cardinality keys like ids or counters do not churn the cache and do not pay for it. <br>
+ * Bucket counters are updated without synchronization when a parser is shared between threads. A lost update only
+ * shifts a window a bit, so admission stays a heuristic and never affects returned values.
+ */
+final class ValueCache {
+
+    private static final int BUCKETS = 256;
+
+    private static final int WINDOW = 256;
+
+    private static final int MIN_HITS = WINDOW / 2;
+
+    private static final int BACKOFF = 64 * WINDOW;
+
+    private final StringCache cache;
+
+    private final KeySet keys;
+
+    /**
+     * Lookups in the current window per bucket. A negative value counts down lookups left before a switched off
+     * bucket gets a new window
+     */
+    private final int[] lookups;
+
+    private final int[] hits;
+
+    ValueCache(StringCache cache, KeySet keys) {
+        this.cache = cache;
+        this.keys = keys;
+        this.lookups = keys == null ? new int[BUCKETS] : null;
+        this.hits = keys == null ? new int[BUCKETS] : null;
+    }
+
+    String get(byte[] key, int keyOffset, int keyLength, byte[] value, int offset, int length, Charset charset) {
+        if (keys != null) {
+            if (keys.contains(key, keyOffset, keyLength)) {
+                return cache.get(value, offset, length, charset);
+            }
+            return new String(value, offset, length, charset);
+        }
+        int bucket = StringCache.hash(key, keyOffset, keyLength) & (BUCKETS - 1);
+        if (bypasses(bucket)) {
+            return new String(value, offset, length, charset);
+        }
+        int hash = StringCache.hash(value, offset, length);
+        String result = cache.find(hash, value, offset, length);
+        count(bucket, result != null);
+        return result != null ? result : cache.put(hash, value, offset, length, charset);
+    }
+
+    /**
+     * Same as {@link #get(byte[], int, int, byte[], int, int, Charset)} for a value being a region of characters
+     */
+    String get(String key, CharSequence value, int start, int end, Charset charset) {
+        if (keys != null) {
+            if (keys.indexOf(key, 0, key.length()) >= 0) {
+                return cache.get(value, start, end, charset);
+            }
+            return value.subSequence(start, end).toString();
+        }
+        int bucket = StringCache.hash(key, 0, key.length()) & (BUCKETS - 1);
+        if (bypasses(bucket)) {
+            return value.subSequence(start, end).toString();
+        }
+        int hash = StringCache.hash(value, start, end);
+        String result = cache.find(hash, value, start, end);
+        count(bucket, result != null);
+        return result != null ? result : cache.put(hash, value, start, end, charset);
+    }
+
+    /**
+     * Counts down a lookup of a switched off bucket
+     * @return <b>true</b> if a bucket is switched off
+     */
+    private boolean bypasses(int bucket) {
+        int count = lookups[bucket];
+        if (count < 0) {
+            lookups[bucket] = count + 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts a lookup of a bucket and switches the bucket off at the end of a window with too few hits
+     */
+    private void count(int bucket, boolean hit) {
+        if (hit) {
+            hits[bucket]++;
+        }
+        int count = lookups[bucket] + 1;
+        if (count == WINDOW) {
+            count = hits[bucket] < MIN_HITS ? -BACKOFF : 0;
+            hits[bucket] = 0;
+        }
+        lookups[bucket] = count;
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,323 @@
+package com.github.lolo.ltsv;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses typed values right from raw bytes without creating Strings <br>
+ * Every method throws {@link NumberFormatException} if a value does not match the expected format.
+ */
+final class ValueParser {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Mantissas of up to 15 digits are exact as doubles
+     */
+    private static final int EXACT_DIGITS = 15;
+
+    private static final byte[][] MONTHS = {
+            ascii("Jan"), ascii("Feb"), ascii("Mar"), ascii("Apr"), ascii("May"), ascii("Jun"),
+            ascii("Jul"), ascii("Aug"), ascii("Sep"), ascii("Oct"), ascii("Nov"), ascii("Dec")
+    };
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private ValueParser() {}
+
+    static long parseLong(byte[] data, int offset, int length, long min, long max) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw invalid(data, offset, length);
+        }
+        // accumulate negatively to be able to represent min value
+        long limit = negative ? min : -max;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw invalid(data, offset, length);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw invalid(data, offset, length);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses a decimal number with an optional fraction and exponent. Numbers with up to 15 significant digits and a
+     * small exponent are computed exactly from a long mantissa, longer ones fall back to {@link Double#parseDouble}
+     */
+    static double parseDouble(byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; i < end && isDigit(data[i]); i++) {
+            any = true;
+            if (mantissa != 0 || data[i] != '0') {
+                if (digits < EXACT_DIGITS + 1) {
+                    mantissa = mantissa * 10 + data[i] - '0';
+                }
+                else {
+                    exponent++;
+                }
+                digits++;
+            }
+        }
+        if (i < end && data[i] == '.') {
+            i++;
+            for (; i < end && isDigit(data[i]); i++) {
+                any = true;
+                if (mantissa != 0 || data[i] != '0') {
+                    if (digits < EXACT_DIGITS + 1) {
+                        mantissa = mantissa * 10 + data[i] - '0';
+                        exponent--;
+                    }
+                    digits++;
+                }
+                else {
+                    exponent--;
+                }
+            }
+        }
+        if (!any) {
+            throw invalid(data, offset, length);
+        }
+        if (i < end && (data[i] == 'e' || data[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (data[i] == '-' || data[i] == '+')) {
+                negativeExponent = data[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                throw invalid(data, offset, length);
+            }
+            int value = 0;
+            for (; i < end && isDigit(data[i]); i++) {
+                value = Math.min(value * 10 + data[i] - '0', 100_000);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end) {
+            throw invalid(data, offset, length);
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (digits <= EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+            double result = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+            return negative ? -result : result;
+        }
+        return Double.parseDouble(new String(data, offset, length, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Parses a dotted IPv4 address into an int, the first octet in the highest byte
+     */
+    static int parseIpv4(byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        int result = 0;
+        for (int part = 0; part < 4; part++) {
+            if (part > 0) {
+                if (i == end || data[i] != '.') {
+                    throw invalid(data, offset, length);
+                }
+                i++;
+            }
+            int start = i;
+            int octet = 0;
+            for (; i < end && isDigit(data[i]) && i - start < 3; i++) {
+                octet = octet * 10 + data[i] - '0';
+            }
+            if (i == start || octet > 255) {
+                throw invalid(data, offset, length);
+            }
+            result = result << 8 | octet;
+        }
+        if (i != end) {
+            throw invalid(data, offset, length);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a timestamp into milliseconds since epoch. Supported formats are ISO-8601
+     * <i>2013-02-28T12:00:00.123+09:00</i> with an optional fraction and zone, UTC if a zone is omitted, and the common
+     * log format <i>[28/Feb/2013:12:00:00 +0900]</i> used in LTSV examples, brackets are optional
+     */
+    static long parseEpochMillis(byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        if (i < end && data[i] == '[') {
+            if (data[end - 1] != ']') {
+                throw invalid(data, offset, length);
+            }
+            i++;
+            end--;
+        }
+        if (end - i >= 3 && data[i + 2] == '/') {
+            return parseCommonLog(data, i, end, offset, length);
+        }
+        return parseIso(data, i, end, offset, length);
+    }
+
+    private static long parseIso(byte[] data, int i, int end, int offset, int length) {
+        if (end - i < 19 || data[i + 4] != '-' || data[i + 7] != '-' || (data[i + 10] != 'T' && data[i + 10] != ' ')
+                || data[i + 13] != ':' || data[i + 16] != ':') {
+            throw invalid(data, offset, length);
+        }
+        int year = digits(data, i, 4, offset, length);
+        int month = digits(data, i + 5, 2, offset, length);
+        int day = digits(data, i + 8, 2, offset, length);
+        int hour = digits(data, i + 11, 2, offset, length);
+        int minute = digits(data, i + 14, 2, offset, length);
+        int second = digits(data, i + 17, 2, offset, length);
+        i += 19;
+        int millis = 0;
+        if (i < end && data[i] == '.') {
+            i++;
+            int start = i;
+            for (; i < end && isDigit(data[i]); i++) {
+                if (i - start < 3) {
+                    millis = millis * 10 + data[i] - '0';
+                }
+            }
+            if (i == start || i - start > 9) {
+                throw invalid(data, offset, length);
+            }
+            for (int scale = i - start; scale < 3; scale++) {
+                millis *= 10;
+            }
+        }
+        int zone = 0;
+        if (i < end && data[i] == 'Z') {
+            i++;
+        }
+        else
+        if (i < end) {
+            zone = parseZone(data, i, end, true, offset, length);
+            i = end;
+        }
+        if (i != end) {
+            throw invalid(data, offset, length);
+        }
+        return toEpochMillis(year, month, day, hour, minute, second, millis, zone, data, offset, length);
+    }
+
+    private static long parseCommonLog(byte[] data, int i, int end, int offset, int length) {
+        if (end - i < 20 || data[i + 6] != '/' || data[i + 11] != ':' || data[i + 14] != ':' || data[i + 17] != ':') {
+            throw invalid(data, offset, length);
+        }
+        int day = digits(data, i, 2, offset, length);
+        int month = 0;
+        for (int m = 0; m < MONTHS.length; m++) {
+            byte[] name = MONTHS[m];
+            if (data[i + 3] == name[0] && data[i + 4] == name[1] && data[i + 5] == name[2]) {
+                month = m + 1;
+                break;
+            }
+        }
+        if (month == 0) {
+            throw invalid(data, offset, length);
+        }
+        int year = digits(data, i + 7, 4, offset, length);
+        int hour = digits(data, i + 12, 2, offset, length);
+        int minute = digits(data, i + 15, 2, offset, length);
+        int second = digits(data, i + 18, 2, offset, length);
+        i += 20;
+        int zone = 0;
+        if (i < end) {
+            if (data[i] != ' ') {
+                throw invalid(data, offset, length);
+            }
+            zone = parseZone(data, i + 1, end, false, offset, length);
+        }
+        return toEpochMillis(year, month, day, hour, minute, second, 0, zone, data, offset, length);
+    }
+
+    /**
+     * Parses <i>+hh:mm</i> or <i>+hhmm</i> zone offset
+     * @return offset in minutes
+     */
+    private static int parseZone(byte[] data, int i, int end, boolean colon, int offset, int length) {
+        boolean separated = end - i == 6 && colon && data[i + 3] == ':';
+        if (!separated && end - i != 5 || data[i] != '+' && data[i] != '-') {
+            throw invalid(data, offset, length);
+        }
+        boolean negative = data[i] == '-';
+        int hours = digits(data, i + 1, 2, offset, length);
+        int minutes = digits(data, separated ? i + 4 : i + 3, 2, offset, length);
+        if (hours > 18 || minutes > 59) {
+            throw invalid(data, offset, length);
+        }
+        int zone = hours * 60 + minutes;
+        return negative ? -zone : zone;
+    }
+
+    private static long toEpochMillis(int year, int month, int day, int hour, int minute, int second, int millis, int zone,
+                                      byte[] data, int offset, int length) {
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(data, offset, length);
+        }
+        // days from civil, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return days * MILLIS_PER_DAY + ((hour * 60L + minute - zone) * 60 + second) * 1000 + millis;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static int digits(byte[] data, int from, int count, int offset, int length) {
+        int result = 0;
+        for (int i = from; i < from + count; i++) {
+            if (!isDigit(data[i])) {
+                throw invalid(data, offset, length);
+            }
+            result = result * 10 + data[i] - '0';
+        }
+        return result;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static NumberFormatException invalid(byte[] data, int offset, int length) {
+        return new NumberFormatException(String.format("For input string: \"%s\"", new String(data, offset, length, StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class LtsvBinderTest {
+
+    public static class Base {
+        private String action;
+    }
+
+    public static class Traffic extends Base {
+
+        private String srcip;
+
+        private int srcport;
+
+        private Integer dstport;
+
+        private long sentbyte;
+
+        private Long rcvdbyte;
+
+        private double duration;
+
+        private Double ratio;
+
+        private boolean blocked;
+
+        private Boolean logged;
+
+        @LtsvKey("app-name")
+        private String app;
+
+        private transient String ignored = "initial";
+
+        private static String shared = "static";
+    }
+
+    public static class NoDefaultConstructor {
+        private final String value;
+
+        public NoDefaultConstructor(String value) {
+            this.value = value;
+        }
+    }
+
+    public static class UnsupportedField {
+        private StringBuilder value;
+    }
+
+    @Test
+    public void testBind() {
+        LtsvParser parser = LtsvParser.builder().withBufferSize(4).build();
+        String data = "srcip:10.0.0.1\tsrcport:5555\tdstport:443\tsentbyte:9000000000\trcvdbyte:12\tduration:1.5\t" +
+                "ratio:-2e-3\tblocked:TRUE\tlogged:false\tapp-name:\"web \\\"app\\\"\"\taction:deny\tignored:x\tshared:y\tother:z\n" +
+                "srcip:\tsrcport:1\n";
+        Iterator<Traffic> it = parser.bind(Traffic.class).parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+        Traffic first = it.next();
+        assertEquals("10.0.0.1", first.srcip);
+        assertEquals(5555, first.srcport);
+        assertEquals(Integer.valueOf(443), first.dstport);
+        assertEquals(9000000000L, first.sentbyte);
+        assertEquals(Long.valueOf(12), first.rcvdbyte);
+        assertEquals(1.5, first.duration, 0);
+        assertEquals(Double.valueOf(-2e-3), first.ratio);
+        assertTrue(first.blocked);
+        assertEquals(Boolean.FALSE, first.logged);
+        assertEquals("Annotated field is bound to its key", "web \"app\"", first.app);
+        assertEquals("Inherited field is bound", "deny", ((Base) first).action);
+        assertEquals("Transient field is not bound", "initial", first.ignored);
+        assertEquals("Static field is not bound", "static", Traffic.shared);
+        Traffic second = it.next();
+        assertNotSame("Every line is bound to a new object", first, second);
+        assertNull("Empty value keeps a field unset", second.srcip);
+        assertEquals(1, second.srcport);
+        assertNull(second.dstport);
+        assertFalse("Iterator does not have any items left", it.hasNext());
+    }
+
+    @Test
+    public void testBindInvalidValue() {
+        String data = "srcport:x1\tsrcip:a";
+        try {
+            LtsvParser.builder().build().bind(Traffic.class).parse(data, StandardCharsets.UTF_8).next();
+            fail("Strict parser must fail on an invalid value");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Invalid value for key [srcport] at line [0]", ex.getMessage());
+        }
+        Traffic traffic = LtsvParser.builder().lenient().build().bind(Traffic.class).parse(data, StandardCharsets.UTF_8).next();
+        assertEquals("Lenient parser skips an invalid value", 0, traffic.srcport);
+        assertEquals("a", traffic.srcip);
+        Iterator<Traffic> it = LtsvParser.builder().withErrorPolicy(LtsvErrorPolicy.SKIP_LINE).build().bind(Traffic.class)
+                .parse(data + "\nsrcport:1\n" + data, StandardCharsets.UTF_8);
+        assertEquals("A line with an invalid value is skipped", 1, it.next().srcport);
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testBindCachedStrings() {
+        LtsvParser parser = LtsvParser.builder().cacheValues(16, "action").build();
+        Iterator<Traffic> it = parser.bind(Traffic.class).parse("action:deny\tsrcip:caf\u00e9\naction:deny\tsrcip:caf\u00e9\n", StandardCharsets.UTF_8);
+        Traffic first = it.next();
+        Traffic second = it.next();
+        assertEquals("Non-ASCII string is decoded with parser charset", "caf\u00e9", first.srcip);
+        assertSame("Cached value is the same instance", ((Base) first).action, ((Base) second).action);
+        assertNotSame("Value of other key is not cached", first.srcip, second.srcip);
+        assertEquals(1, parser.valueCacheStats().hits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBindNoDefaultConstructor() {
+        LtsvParser.builder().build().bind(NoDefaultConstructor.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBindUnsupportedField() {
+        LtsvParser.builder().build().bind(UnsupportedField.class);
+    }
+}
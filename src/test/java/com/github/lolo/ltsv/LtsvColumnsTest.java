@@ -0,0 +1,141 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LtsvColumnsTest {
+
+    @Test
+    public void testColumnsFillMissingKeys() {
+        LtsvParser parser = LtsvParser.builder().lenient().build();
+        LtsvColumns columns = new LtsvColumns();
+        int count = parser.parseBatch(input("abc:1\tdef:x\nabc:2\tghi:é\nabc:3\tabc:4\t:5\ndef:\"y\\\"\"\n"), columns, 10);
+        assertEquals("Columns contain all lines", 4, count);
+        assertEquals(4, columns.size());
+        assertEquals("Column per key, values without a key are skipped", 3, columns.columnCount());
+        LtsvColumns.Column abc = columns.column(0);
+        assertEquals("abc", abc.key());
+        assertNull("Raw column has no type", abc.type());
+        assertEquals("1", abc.getString(0));
+        assertEquals("2", abc.getString(1));
+        assertEquals("Last duplicate key wins", "4", abc.getString(2));
+        assertTrue("Missing key is null", abc.isNull(3));
+        LtsvColumns.Column def = columns.column("def");
+        assertEquals("x", def.getString(0));
+        assertTrue("Key seen later is null in earlier rows", def.isNull(1));
+        assertTrue(def.isNull(2));
+        assertEquals("Escaped value is unescaped", "y\"", def.getString(3));
+        LtsvColumns.Column ghi = columns.column("ghi");
+        assertTrue("Key seen earlier is null in later rows", ghi.isNull(0));
+        assertEquals("é", ghi.getString(1));
+        assertTrue(ghi.isNull(3));
+        assertEquals(2, ghi.length(1));
+        assertEquals("é", new String(ghi.arena(), ghi.offset(1), ghi.length(1), StandardCharsets.UTF_8));
+        assertNull(columns.column("xyz"));
+        try {
+            abc.getString(4);
+            fail("Row index must be checked");
+        }
+        catch (IndexOutOfBoundsException ex) {
+            assertEquals("Index [4] is out of column bounds [4]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testColumnsOfSchema() {
+        LtsvSchema schema = LtsvSchema.builder()
+                .field("bytes", LtsvSchema.Type.LONG)
+                .field("ip", LtsvSchema.Type.IPV4)
+                .field("ratio", LtsvSchema.Type.DOUBLE)
+                .build();
+        LtsvParser parser = LtsvParser.builder().withSchema(schema).build();
+        LtsvColumns columns = new LtsvColumns();
+        parser.parseBatch(input("bytes:10\tip:10.0.0.1\tuser:a\nratio:0.5\tbytes:\nbytes:7\tbytes:8\n"), columns, 10);
+        assertEquals(3, columns.size());
+        assertEquals("Schema keys come first", "bytes", columns.column(0).key());
+        assertEquals(4, columns.columnCount());
+        LtsvColumns.Column bytes = columns.column("bytes");
+        assertEquals(LtsvSchema.Type.LONG, bytes.type());
+        assertEquals(10L, bytes.getLong(0));
+        assertTrue("Empty value is null", bytes.isNull(1));
+        assertEquals("Last duplicate key wins", 8L, bytes.getLong(2));
+        assertEquals(0x0A000001, columns.column("ip").getInt(0));
+        assertTrue(columns.column("ip").isNull(2));
+        assertEquals(0.5, columns.column("ratio").getDouble(1), 0.0);
+        assertEquals("a", columns.column("user").getString(0));
+        try {
+            bytes.getLong(1);
+            fail("Null rows have no primitive value");
+        }
+        catch (NumberFormatException ex) {
+            assertEquals("No value for key [bytes] at row [1]", ex.getMessage());
+        }
+        try {
+            bytes.getString(0);
+            fail("Typed columns hold no raw values");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Column [bytes:LONG] holds decoded values", ex.getMessage());
+        }
+        try {
+            bytes.getDouble(0);
+            fail("Column type must be checked");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Column [bytes:LONG] is not of type DOUBLE", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testColumnsContinueInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            sb.append("id:").append(i);
+            if (i % 3 == 0) {
+                sb.append("\tname:n").append(i % 7);
+            }
+            if (i % 5 == 0) {
+                sb.append("\tk").append(i % 4).append(":v");
+            }
+            sb.append("\n");
+        }
+        LtsvParser parser = LtsvParser.builder().withBufferSize(64).build();
+        Iterator<Map<String, String>> expected = parser.parse(sb.toString(), StandardCharsets.UTF_8);
+        InputStream in = input(sb.toString());
+        LtsvColumns columns = new LtsvColumns();
+        int total = 0;
+        int count;
+        while ((count = parser.parseBatch(in, columns, 1000)) > 0) {
+            for (int row = 0; row < count; row++) {
+                Map<String, String> map = expected.next();
+                int present = 0;
+                for (int c = 0; c < columns.columnCount(); c++) {
+                    LtsvColumns.Column column = columns.column(c);
+                    if (!column.isNull(row)) {
+                        present++;
+                        assertEquals("Row equals map of line " + (total + row), map.get(column.key()), column.getString(row));
+                    }
+                }
+                assertEquals("Row has all keys of line " + (total + row), map.size(), present);
+            }
+            total += count;
+        }
+        assertEquals(2500, total);
+        assertFalse(expected.hasNext());
+        assertEquals("Exhausted input gives empty columns", 0, parser.parseBatch(in, columns, 1000));
+        assertEquals("Another input starts with no columns", 1, parser.parseBatch(input("abc:1"), columns, 100));
+        assertEquals(1, columns.columnCount());
+        assertEquals("1", columns.column("abc").getString(0));
+    }
+
+    private static InputStream input(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LtsvFeederTest {
+
+    private static final String DATA = "abc:1\tdef:\"x\\\"y\tz\"\n" +
+            "ghi:é€\tj\\:kl:m\\\nn\n" +
+            "\n" +
+            "msg:\"a\nb\"\t\tnull:\t:orphan\n" +
+            "long:0123456789abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz";
+
+    @Test
+    public void testFeedSplitAnywhere() {
+        for (LtsvParser parser : Arrays.asList(LtsvParser.builder().lenient().build(),
+                LtsvParser.builder().lenient().withBufferSize(1).build(),
+                LtsvParser.builder().lenient().trimValues().selectKeys("abc", "msg", "long").build())) {
+            List<Map<String, String>> expected = new ArrayList<>();
+            parser.parse(DATA, StandardCharsets.UTF_8).forEachRemaining(expected::add);
+            byte[] bytes = DATA.getBytes(StandardCharsets.UTF_8);
+            for (int split = 0; split <= bytes.length; split++) {
+                List<Map<String, String>> actual = new ArrayList<>();
+                LtsvFeeder feeder = parser.feeder(record -> actual.add(record.toMap()));
+                feeder.feed(bytes, 0, split);
+                feeder.feed(ByteBuffer.wrap(bytes, split, bytes.length - split));
+                feeder.endOfInput();
+                assertEquals("Split at " + split, expected, actual);
+            }
+            List<Map<String, String>> actual = new ArrayList<>();
+            LtsvFeeder feeder = parser.feeder(record -> actual.add(record.toMap()));
+            ByteBuffer direct = ByteBuffer.allocateDirect(1);
+            for (byte b : bytes) {
+                direct.clear();
+                direct.put(b).flip();
+                feeder.feed(direct);
+                assertFalse("Buffer is drained", direct.hasRemaining());
+            }
+            feeder.endOfInput();
+            assertEquals("Byte by byte", expected, actual);
+        }
+    }
+
+    @Test
+    public void testFeedEmitsCompleteLines() {
+        List<String> values = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        LtsvFeeder feeder = LtsvParser.builder().build().feeder(record -> {
+            values.add(record.get("abc"));
+            lines.add(record.lineNumber());
+        });
+        feeder.feed(bytes("abc:1\nabc:\"2"));
+        assertEquals("Only a complete line is emitted", Arrays.asList("1"), values);
+        feeder.feed(bytes("\n3\"\nabc:4"));
+        assertEquals("A quoted line ending does not end a line", Arrays.asList("1", "2\n3"), values);
+        feeder.endOfInput();
+        assertEquals("The last line ends with the input", Arrays.asList("1", "2\n3", "4"), values);
+        assertEquals(Arrays.asList(0, 1, 2), lines);
+        feeder.endOfInput();
+        assertEquals(3, values.size());
+        try {
+            feeder.feed(bytes("abc:5\n"));
+            fail("Input is ended");
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("Input is already ended", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testFeedErrors() {
+        List<String> rejected = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        LtsvParser parser = LtsvParser.builder().withDeadLetterHandler((line, lineNum, position, error) ->
+                rejected.add(new String(line, StandardCharsets.UTF_8) + "|" + lineNum + "|" + position)).build();
+        LtsvFeeder feeder = parser.feeder(record -> values.add(record.get("abc") + "|" + record.lineNumber()));
+        feeder.feed(bytes("abc:1\nab\tc"));
+        feeder.feed(bytes("de:2"));
+        assertEquals("A rejected line waits for its end", 0, rejected.size());
+        feeder.feed(bytes("\nabc:3\n\"abc:4"));
+        feeder.endOfInput();
+        assertEquals(Arrays.asList("1|0", "3|2"), values);
+        assertEquals(Arrays.asList("ab\tcde:2|1|6", "\"abc:4|3|21"), rejected);
+
+        values.clear();
+        feeder = LtsvParser.builder().build().feeder(record -> values.add(record.get("abc") + "|" + record.lineNumber()));
+        try {
+            feeder.feed(bytes("abc:1\nab\tc"));
+            fail("Strict parser must fail on a key without a value");
+        }
+        catch (MalformedLtsvException ex) {
+            assertEquals("Key without a value at line [1] position [3]", ex.getMessage());
+        }
+        feeder.feed(bytes("de:2\nabc:3\n"));
+        assertEquals("The rest of a failed line is skipped", Arrays.asList("1|0", "3|2"), values);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFeedTranscoded() {
+        LtsvParser.builder().withCharset(StandardCharsets.UTF_16).build().feeder(record -> {});
+    }
+
+    private static ByteBuffer bytes(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
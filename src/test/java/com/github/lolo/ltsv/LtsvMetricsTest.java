@@ -0,0 +1,170 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LtsvMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMetricsCountLines() {
+        LtsvMetrics metrics = new LtsvMetrics();
+        LtsvParser parser = LtsvParser.builder().withMetrics(metrics).build();
+        String data = "abc:1\tdef:2\nghi:3\n";
+        parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8))).forEachRemaining(row -> {});
+        assertEquals(2, metrics.lines());
+        assertEquals("Bytes of all lines are counted", data.length(), metrics.bytes());
+        assertEquals(3, metrics.fields());
+        assertEquals("Latency is recorded per line", 2, metrics.latency().count());
+        assertEquals(0, metrics.errors());
+        parser.parse((CharSequence) "abc:é\tdef:2").next();
+        assertEquals("Characters are counted for strings", data.length() + 11, metrics.bytes());
+        assertEquals(3, metrics.lines());
+        assertEquals(5, metrics.fields());
+        metrics.reset();
+        assertEquals(0, metrics.lines());
+        assertEquals(0, metrics.latency().count());
+        assertEquals(0, metrics.latency().max());
+    }
+
+    @Test
+    public void testMetricsCountErrors() {
+        LtsvMetrics metrics = new LtsvMetrics();
+        LtsvParser strict = LtsvParser.builder().strict().withMetrics(metrics).build();
+        String[] malformed = {"abc\tdef:1", "a\"bc:1", "a\\bc:1", ":1", "abc:1\t\\def:2", "abc:1\t\"def\":2"};
+        LtsvError[] expected = {LtsvError.KEY_WITHOUT_VALUE, LtsvError.UNEXPECTED_QUOTE, LtsvError.UNEXPECTED_ESCAPE,
+                LtsvError.EMPTY_KEY, LtsvError.UNEXPECTED_ESCAPE, LtsvError.UNEXPECTED_QUOTE};
+        for (int i = 0; i < malformed.length; i++) {
+            metrics.reset();
+            for (int chars = 0; chars < 2; chars++) {
+                try {
+                    Iterator<Map<String, String>> it = chars == 0
+                            ? strict.parse(malformed[i], StandardCharsets.UTF_8)
+                            : strict.parse((CharSequence) malformed[i]);
+                    it.next();
+                    fail("Strict parser must fail on " + malformed[i]);
+                }
+                catch (ParseLtsvException ex) {
+                    assertEquals("Error counted for " + malformed[i], 1 + chars, metrics.errors(expected[i]));
+                    if (expected[i] == LtsvError.UNEXPECTED_QUOTE) {
+                        assertTrue(ex.getMessage(), ex.getMessage().startsWith("Unexpected quote token [\"]"));
+                    }
+                }
+            }
+        }
+        assertEquals(2, metrics.errors());
+        assertEquals("Failed lines are not counted", 0, metrics.lines());
+        assertEquals(0, metrics.recoveries());
+
+        LtsvParser lenient = LtsvParser.builder().lenient().withMetrics(metrics).build();
+        for (String line : malformed) {
+            lenient.parse(line, StandardCharsets.UTF_8).next();
+        }
+        assertEquals(6, metrics.lines());
+        assertEquals(6, metrics.recoveries());
+        assertEquals(2, metrics.recoveries(LtsvError.UNEXPECTED_QUOTE));
+        assertEquals(1, metrics.recoveries(LtsvError.EMPTY_KEY));
+    }
+
+    @Test
+    public void testMetricsCountInvalidValues() {
+        LtsvMetrics metrics = new LtsvMetrics();
+        LtsvSchema schema = LtsvSchema.builder().field("bytes", LtsvSchema.Type.LONG).build();
+        LtsvParser lenient = LtsvParser.builder().lenient().withSchema(schema).withMetrics(metrics).build();
+        lenient.parseRecords("bytes:x\nbytes:1", StandardCharsets.UTF_8).forEachRemaining(record -> {});
+        assertEquals(1, metrics.recoveries(LtsvError.INVALID_VALUE));
+        LtsvParser strict = LtsvParser.builder().withSchema(schema).withMetrics(metrics).build();
+        try {
+            strict.parseRecords("bytes:x", StandardCharsets.UTF_8).next();
+            fail("Strict parser must fail on invalid value");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals(1, metrics.errors(LtsvError.INVALID_VALUE));
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        LtsvMetrics metrics = new LtsvMetrics();
+        LtsvMetrics.Histogram histogram = metrics.latency();
+        assertEquals("Empty histogram", 0, histogram.valueAtPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_500.0, histogram.mean(), 0.001);
+        long median = histogram.valueAtPercentile(50);
+        assertTrue("Median within bucket precision: " + median, median >= 500_000 && median <= 500_000 * 17 / 16);
+        assertEquals("Top percentile is the maximum", 1_000_000, histogram.valueAtPercentile(100));
+        for (long value = 0; value < 1 << 20; value += 1 + value / 7) {
+            int index = LtsvMetrics.Histogram.index(value);
+            assertTrue("Value fits its bucket: " + value, value <= LtsvMetrics.Histogram.upperBound(index));
+            assertTrue("Value does not fit the previous bucket: " + value, index == 0 || value > LtsvMetrics.Histogram.upperBound(index - 1));
+        }
+        histogram.record(Long.MAX_VALUE);
+        assertEquals("Huge values are counted", 1001, histogram.count());
+        try {
+            histogram.valueAtPercentile(101);
+            fail("Percentile must be checked");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Percentile must be between 0 and 100", ex.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMetrics() {
+        LtsvParser.builder().withMetrics(null);
+    }
+
+    @Test
+    public void testParallelMetricsMatchSequential() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sb.append(i == 25 ? "abc\tdef:1" : "id:" + i + "\tmsg:\"x\ny\"").append("\n");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        for (int policy = 0; policy < 2; policy++) {
+            LtsvMetrics sequential = new LtsvMetrics();
+            LtsvMetrics parallel = new LtsvMetrics();
+            consume(builder(policy).withMetrics(sequential).build().parse(new ByteArrayInputStream(bytes)));
+            consume(builder(policy).withMetrics(parallel).build().parallelParse(file));
+            assertEquals("Lines with policy " + policy, sequential.lines(), parallel.lines());
+            assertEquals("Errors with policy " + policy, sequential.errors(), parallel.errors());
+            assertEquals(1, parallel.errors());
+            assertEquals(sequential.bytes(), parallel.bytes());
+            assertEquals(sequential.fields(), parallel.fields());
+            assertEquals("Latency is recorded for consumed lines only", sequential.lines(), parallel.latency().count());
+        }
+    }
+
+    private static LtsvParser.Builder builder(int policy) {
+        LtsvParser.Builder builder = LtsvParser.builder().withChunkSize(32);
+        return policy == 0 ? builder : builder.withDeadLetterHandler((line, lineNum, position, error) -> {});
+    }
+
+    private static void consume(Iterator<Map<String, String>> it) {
+        try {
+            it.forEachRemaining(row -> {});
+        }
+        catch (ParseLtsvException ex) {
+            // the failed line stops iteration
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LtsvParserConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private static final int ITERATIONS = 500;
+
+    private static final int LINES = 20;
+
+    @Test
+    public void testSharedParser() throws Exception {
+        LtsvParser parser = LtsvParser.builder().withBufferSize(7).build();
+        stress(parser, false);
+    }
+
+    @Test
+    public void testSharedParserWithCaches() throws Exception {
+        // small caches make threads evict each other's entries all the time
+        LtsvParser parser = LtsvParser.builder().withBufferSize(7).internKeys(4).cacheValues(4).build();
+        stress(parser, true);
+        CacheStats stats = parser.keyCacheStats();
+        assertTrue("Key cache must be used", stats.hits() + stats.misses() > 0);
+    }
+
+    @Test
+    public void testSharedParserWithProjection() throws Exception {
+        LtsvParser parser = LtsvParser.builder().selectKeys("id", "thread").cacheValues(16, "thread").build();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        Iterator<Map<String, String>> it = parser.parse(line(thread, i), StandardCharsets.UTF_8);
+                        Map<String, String> expected = new HashMap<>();
+                        expected.put("id", String.valueOf(i));
+                        expected.put("thread", "t" + thread);
+                        assertEquals("Only selected keys are extracted", expected, it.next());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReusedBuilder() {
+        LtsvParser.Builder builder = LtsvParser.builder().lenient();
+        LtsvParser lenient = builder.build();
+        builder.strict();
+        LtsvParser strict = builder.build();
+        Map<String, String> result = lenient.parse("abc\tdef:1", StandardCharsets.UTF_8).next();
+        assertEquals("Built parser is not changed by its builder", "1", result.get("abc\tdef"));
+        try {
+            strict.parse("abc\tdef:1", StandardCharsets.UTF_8).next();
+            fail("Strict parser must fail on a key without a value");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Key without a value at line [0] position [4]", ex.getMessage());
+        }
+    }
+
+    private void stress(LtsvParser parser, boolean records) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        StringBuilder data = new StringBuilder();
+                        for (int l = 0; l < LINES; l++) {
+                            data.append(line(thread, i * LINES + l)).append('\n');
+                        }
+                        byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+                        if (records) {
+                            Iterator<LtsvRecord> it = parser.parseRecords(new ByteArrayInputStream(bytes));
+                            for (int l = 0; l < LINES; l++) {
+                                LtsvRecord record = it.next();
+                                assertEquals(l, record.lineNumber());
+                                assertEquals(expected(thread, i * LINES + l), record.toMap());
+                            }
+                        }
+                        else {
+                            Iterator<Map<String, String>> it = parser.parse(new ByteArrayInputStream(bytes));
+                            for (int l = 0; l < LINES; l++) {
+                                assertEquals(expected(thread, i * LINES + l), it.next());
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String line(int thread, int id) {
+        return "id:" + id + "\tthread:t" + thread + "\tkey" + thread + ":\"v\\\"" + id % 7 + "\"\tlevel:" + (id % 3 == 0 ? "INFO" : "WARN");
+    }
+
+    private static Map<String, String> expected(int thread, int id) {
+        Map<String, String> expected = new HashMap<>();
+        expected.put("id", String.valueOf(id));
+        expected.put("thread", "t" + thread);
+        expected.put("key" + thread, "v\"" + id % 7);
+        expected.put("level", id % 3 == 0 ? "INFO" : "WARN");
+        return expected;
+    }
+}
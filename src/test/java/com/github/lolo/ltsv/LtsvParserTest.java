@@ -1,19 +1,47 @@
 package com.github.lolo.ltsv;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
 public class LtsvParserTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testMultipleLineStrictDefaults() {
         LtsvParser parser = LtsvParser.builder().strict().build();
@@ -82,7 +110,7 @@ public class LtsvParserTest {
     public void testStreamExceptionHasNext() throws Exception {
         LtsvParser parser = LtsvParser.builder().strict().build();
         InputStream in = Mockito.mock(InputStream.class);
-        Mockito.when(in.available()).thenThrow(IOException.class);
+        Mockito.when(in.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt())).thenThrow(IOException.class);
         Iterator<Map<String, String>> it = parser.parse(in);
         it.hasNext();
     }
@@ -92,9 +120,861 @@ public class LtsvParserTest {
         LtsvParser parser = LtsvParser.builder().strict().build();
         InputStream in = Mockito.mock(InputStream.class);
         Mockito.when(in.available()).thenReturn(100);
-        Mockito.when(in.read()).thenThrow(IOException.class);
+        Mockito.when(in.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt())).thenThrow(IOException.class);
         Iterator<Map<String, String>> it = parser.parse(in);
         it.next();
     }
 
+    @Test
+    public void testMultipleLineChunkBoundaries() {
+        String data = "abc:`1 \n\t\t 2#` 3`\tdef:4#\t5\nhij:\tklm:`6`\n\nопр:стф\n";
+        for (int size = 1; size <= 16; size++) {
+            LtsvParser parser = LtsvParser.builder().strict().withQuoteChar('`').withEscapeChar('#').withBufferSize(size).build();
+            Iterator<Map<String, String>> it = parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+            assertTrue("Iterator must be non-empty", it.hasNext());
+            Map<String, String> row = it.next();
+            assertEquals("Result contains two entries", 2, row.size());
+            assertThat(row, hasEntry("abc", "1 \n\t\t 2` 3"));
+            assertThat(row, hasEntry("def", "4\t5"));
+            assertTrue("Iterator must be non-empty", it.hasNext());
+            row = it.next();
+            assertEquals("Result contains two entries", 2, row.size());
+            assertThat(row, hasEntry("hij", null));
+            assertThat(row, hasEntry("klm", "6"));
+            assertTrue("Iterator must be non-empty", it.hasNext());
+            assertThat("Empty map returned for empty line", it.next().size(), is(0));
+            assertTrue("Iterator must be non-empty", it.hasNext());
+            assertThat(it.next(), hasEntry("опр", "стф"));
+            assertFalse("Iterator does not have any items left", it.hasNext());
+        }
+    }
+
+    @Test
+    public void testLongRunChunkBoundaries() {
+        String data = "poluuid:c8a5b0f2-5a3e-51e6-8f7a-1f5d2c9e0b44\tsrcmac:00:1a:2b:3c:4d:5e\tmsg:Соединение закрыто удалённой стороной\n"
+                + "long_key_with_escaped\\:colon:value_with_escaped\\\ttab_and_more_bytes\tmark:\"quoted value\"\n";
+        for (int size = 1; size <= 64; size++) {
+            LtsvParser parser = LtsvParser.builder().lenient().withBufferSize(size).build();
+            Iterator<Map<String, String>> it = parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+            Map<String, String> row = it.next();
+            assertEquals("Result contains three entries", 3, row.size());
+            assertThat(row, hasEntry("poluuid", "c8a5b0f2-5a3e-51e6-8f7a-1f5d2c9e0b44"));
+            assertThat(row, hasEntry("srcmac", "00:1a:2b:3c:4d:5e"));
+            assertThat(row, hasEntry("msg", "Соединение закрыто удалённой стороной"));
+            row = it.next();
+            assertEquals("Result contains two entries", 2, row.size());
+            assertThat(row, hasEntry("long_key_with_escaped:colon", "value_with_escaped\ttab_and_more_bytes"));
+            assertThat(row, hasEntry("mark", "quoted value"));
+            assertFalse("Iterator does not have any items left", it.hasNext());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBufferSize() {
+        LtsvParser.builder().withBufferSize(0);
+    }
+
+    @Test
+    public void testRetainedBuffer() {
+        LtsvParser parser = LtsvParser.builder().withBufferSize(8).withMaxRetainedBufferSize(64).build();
+        WindowStream first = new WindowStream("abc:1234567890\n");
+        Iterator<LtsvRecord> it = parser.parseRecords(first);
+        LtsvRecord record = it.next();
+        assertFalse(it.hasNext());
+        assertEquals("Last record stays valid after the end", "1234567890", record.get("abc"));
+        assertFalse("Drained stream stays drained", it.hasNext());
+
+        WindowStream second = new WindowStream("de:f");
+        it = parser.parseRecords(second);
+        record = it.next();
+        assertSame("Window of a drained stream is reused by the next stream", first.window, second.window);
+        assertEquals("Reused window holds no data of a drained stream", 1, record.size());
+        assertEquals("f", record.get("de"));
+        assertFalse(it.hasNext());
+
+        WindowStream third = new WindowStream("g:h");
+        parser.stream(third).forEach(row -> {});
+        assertNotSame("Window is kept until hasNext() is called again", second.window, third.window);
+        WindowStream fourth = new WindowStream("i:j");
+        parser.stream(fourth).forEach(row -> {});
+        assertSame("Window of a drained stream is reused by the next stream", third.window, fourth.window);
+        assertFalse(it.hasNext());
+        WindowStream fifth = new WindowStream("k:l");
+        assertEquals("l", parser.parseRecords(fifth).next().get("k"));
+        assertSame("Window is released on the next call to hasNext()", second.window, fifth.window);
+
+        WindowStream huge = new WindowStream("abc:" + String.join("", Collections.nCopies(100, "x")));
+        parser.stream(huge).forEach(row -> {});
+        WindowStream next = new WindowStream("m:n");
+        parser.stream(next).forEach(row -> {});
+        assertThat("Window grows to fit a line", huge.window.length, greaterThan(64));
+        assertNotSame("Window larger than maximum is dropped", huge.window, next.window);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRetainedBufferSize() {
+        LtsvParser.builder().withMaxRetainedBufferSize(-1);
+    }
+
+    @Test
+    public void testSelectKeys() {
+        LtsvParser parser = LtsvParser.builder().strict().selectKeys("srcip", "action", "sentbyte").build();
+        Iterator<Map<String, String>> it = parser.parse("srcip:1.1.1.1\tnote:\"a\tb\\\"c\"\tdstip:2.2.2.2\taction:close\tmemo:x\\\ty\tsentbyte:42\nsrcip:3.3.3.3\tsentbyte:", StandardCharsets.UTF_8);
+        assertTrue("Iterator must be non-empty", it.hasNext());
+        Map<String, String> data = it.next();
+        assertEquals("Result contains three entries", 3, data.size());
+        assertThat(data, hasEntry("srcip", "1.1.1.1"));
+        assertThat(data, hasEntry("action", "close"));
+        assertThat(data, hasEntry("sentbyte", "42"));
+        assertTrue("Iterator must be non-empty", it.hasNext());
+        data = it.next();
+        assertEquals("Result contains two entries", 2, data.size());
+        assertThat(data, hasEntry("srcip", "3.3.3.3"));
+        assertThat(data, hasEntry("sentbyte", null));
+        assertFalse("Iterator does not have any items left", it.hasNext());
+    }
+
+    @Test
+    public void testSelectKeysLenient() {
+        LtsvParser parser = LtsvParser.builder().lenient().trimKeys().selectKeys("abc", "klm").build();
+        Iterator<Map<String, String>> it = parser.parse(" abc :1\t:2\tdef:`3`\tklm:", StandardCharsets.UTF_8);
+        Map<String, String> data = it.next();
+        assertEquals("Result contains two entries", 2, data.size());
+        assertThat(data, hasEntry("abc", "1"));
+        assertThat(data, hasEntry("klm", null));
+    }
+
+    @Test(expected = ParseLtsvException.class)
+    public void testSelectKeysStrictErrorInSkippedValue() {
+        LtsvParser parser = LtsvParser.builder().strict().selectKeys("abc").build();
+        Iterator<Map<String, String>> it = parser.parse("abc:1\tdef:\"2\"\t\"3\":4", StandardCharsets.UTF_8);
+        it.next();
+    }
+
+    @Test
+    public void testInternKeys() {
+        LtsvParser parser = LtsvParser.builder().internKeys(64).build();
+        Iterator<Map<String, String>> it = parser.parse("abc:1\tdef:2\nabc:3\tdef:4\n", StandardCharsets.UTF_8);
+        String first = it.next().keySet().stream().filter("abc"::equals).findFirst().get();
+        String second = it.next().keySet().stream().filter("abc"::equals).findFirst().get();
+        assertSame("Interned key is the same instance", first, second);
+        CacheStats stats = parser.keyCacheStats();
+        assertEquals(64, stats.capacity());
+        assertEquals("Keys decoded once", 2, stats.misses());
+        assertEquals("Keys reused", 2, stats.hits());
+    }
+
+    @Test
+    public void testInternKeysIsBounded() {
+        LtsvParser parser = LtsvParser.builder().internKeys(4).build();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("key").append(i).append(":").append(i).append("\n");
+        }
+        Iterator<Map<String, String>> it = parser.parse(sb.toString(), StandardCharsets.UTF_8);
+        for (int i = 0; i < 100; i++) {
+            assertThat(it.next(), hasEntry("key" + i, String.valueOf(i)));
+        }
+        CacheStats stats = parser.keyCacheStats();
+        assertEquals(4, stats.capacity());
+        assertEquals(100, stats.misses());
+        assertEquals("All but the first keys evicted an entry", 96, stats.evictions());
+    }
+
+    @Test
+    public void testKeysNotInternedByDefault() {
+        LtsvParser parser = LtsvParser.builder().build();
+        parser.parse("abc:1", StandardCharsets.UTF_8).next();
+        assertEquals(0, parser.keyCacheStats().capacity());
+        assertEquals(0, parser.keyCacheStats().hits());
+    }
+
+    @Test
+    public void testCacheDeclaredValues() {
+        LtsvParser parser = LtsvParser.builder().cacheValues(16, "type").build();
+        Iterator<Map<String, String>> it = parser.parse("type:traffic\tid:1\ntype:traffic\tid:1\n", StandardCharsets.UTF_8);
+        Map<String, String> first = it.next();
+        Map<String, String> second = it.next();
+        assertSame("Cached value is the same instance", first.get("type"), second.get("type"));
+        assertNotSame("Value of other key is not cached", first.get("id"), second.get("id"));
+        assertEquals(1, parser.valueCacheStats().hits());
+        assertEquals(1, parser.valueCacheStats().misses());
+    }
+
+    @Test
+    public void testCacheAdaptiveValues() {
+        LtsvParser parser = LtsvParser.builder().cacheValues(64).build();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("type:traffic\tid:").append(i).append("\tlevel:").append(i % 2 == 0 ? "notice" : "warning").append("\n");
+        }
+        Iterator<Map<String, String>> it = parser.parse(sb.toString(), StandardCharsets.UTF_8);
+        String type = it.next().get("type");
+        for (int i = 1; i < 2000; i++) {
+            Map<String, String> data = it.next();
+            assertSame("Low-cardinality value is cached", type, data.get("type"));
+            assertEquals(String.valueOf(i), data.get("id"));
+        }
+        CacheStats stats = parser.valueCacheStats();
+        assertThat("High-cardinality key stops using cache", stats.misses(), lessThan(300L));
+        assertThat(stats.hitRate(), greaterThan(0.9));
+    }
+
+    @Test
+    public void testParallelParse() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append("id:").append(i);
+            if (i % 7 == 0) {
+                // line endings inside a quoted value
+                sb.append("\tmsg:\"a\nb\n\nc\"");
+            }
+            if (i % 11 == 0) {
+                // escaped line ending
+                sb.append("\tesc:x\\\ny");
+            }
+            sb.append("\tlevel:info\n");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        LtsvParser parser = LtsvParser.builder().withChunkSize(37).build();
+        List<Map<String, String>> expected = new ArrayList<>();
+        parser.parse(new ByteArrayInputStream(bytes)).forEachRemaining(expected::add);
+        List<Map<String, String>> actual = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parser.parallelParse(file, pool).forEachRemaining(actual::add);
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertEquals("Parallel parse must return the same rows in the same order", expected, actual);
+        assertEquals("a\nb\n\nc", actual.get(2996).get("msg"));
+        assertEquals("x\ny", actual.get(2992).get("esc"));
+    }
+
+    @Test
+    public void testParallelParseErrorLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i == 1234 ? "abc\tdef:1" : "id:" + i + "\tmsg:\"x\ny\"").append("\n");
+        }
+        Path file = folder.newFile().toPath();
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        LtsvParser parser = LtsvParser.builder().withChunkSize(100).build();
+        Iterator<Map<String, String>> it = parser.parallelParse(file);
+        for (int i = 0; i < 1234; i++) {
+            assertEquals("Rows before an error are returned", String.valueOf(i), it.next().get("id"));
+        }
+        try {
+            it.next();
+            fail("Parser must fail on a key without a value");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Line number is counted from the start of file", "Key without a value at line [1234] position [4]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testParallelParseEmptyFile() throws IOException {
+        Path file = folder.newFile().toPath();
+        Iterator<Map<String, String>> it = LtsvParser.builder().build().parallelParse(file);
+        assertFalse("Iterator must be empty", it.hasNext());
+    }
+
+    @Test(expected = ParseLtsvException.class)
+    public void testParallelParseMissingFile() {
+        LtsvParser.builder().build().parallelParse(folder.getRoot().toPath().resolve("missing.ltsv"));
+    }
+
+    @Test
+    public void testParseMappedFile() throws IOException {
+        byte[] bytes = "abc:1\tdef:\"x\ny\"\n\nабв:где\tghi:\n".getBytes(StandardCharsets.UTF_8);
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        LtsvParser parser = LtsvParser.builder().build();
+        List<Map<String, String>> expected = new ArrayList<>();
+        parser.parse(new ByteArrayInputStream(bytes)).forEachRemaining(expected::add);
+        List<Map<String, String>> actual = new ArrayList<>();
+        parser.parse(file).forEachRemaining(actual::add);
+        assertEquals("Mapped file must be parsed as a stream", expected, actual);
+        Iterator<LtsvRecord> records = parser.parseRecords(file);
+        assertEquals("x\ny", records.next().get("def"));
+        assertEquals(0, records.next().size());
+        LtsvRecord record = records.next();
+        assertEquals("где", record.get("абв"));
+        assertNull(record.get("ghi"));
+        assertFalse("Iterator does not have any items left", records.hasNext());
+    }
+
+    @Test
+    public void testParseMappedWindows() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("id:").append(i).append("\tmsg:\"").append(i % 3 == 0 ? "a long value crossing windows" : "x").append("\"\n");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        LtsvParser parser = LtsvParser.builder().build();
+        List<Map<String, String>> expected = new ArrayList<>();
+        parser.parse(new ByteArrayInputStream(bytes)).forEachRemaining(expected::add);
+        for (int window = 1; window <= 16; window++) {
+            List<Map<String, String>> actual = new ArrayList<>();
+            parser.newMapIterator(InputBuffer.map(file, window)).forEachRemaining(actual::add);
+            assertEquals("Window size " + window + " must not change the result", expected, actual);
+        }
+    }
+
+    @Test
+    public void testParseFileChannel() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "abc:1\nabc:2\nabc:3".getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(6);
+            Iterator<Map<String, String>> it = LtsvParser.builder().build().parse(channel);
+            assertEquals("Channel is parsed from its position", "2", it.next().get("abc"));
+            assertEquals("3", it.next().get("abc"));
+            assertFalse("Iterator does not have any items left", it.hasNext());
+            assertTrue("Channel is not closed", channel.isOpen());
+        }
+    }
+
+    @Test
+    public void testStream() {
+        LtsvParser parser = LtsvParser.builder().build();
+        Spliterator<Map<String, String>> spliterator = parser.stream("abc:1\nabc:2", StandardCharsets.UTF_8).spliterator();
+        assertTrue("Stream is ordered", spliterator.hasCharacteristics(Spliterator.ORDERED));
+        assertTrue("Stream has no nulls", spliterator.hasCharacteristics(Spliterator.NONNULL));
+        List<String> values = parser.stream("abc:1\nabc:2\n\nabc:3", StandardCharsets.UTF_8)
+                .map(row -> row.get("abc"))
+                .collect(Collectors.toList());
+        assertThat(values, contains("1", "2", null, "3"));
+    }
+
+    @Test
+    public void testParallelStream() {
+        String data = IntStream.range(0, 10000).mapToObj(i -> "id:" + i + "\tmsg:\"a\nb\"").collect(Collectors.joining("\n"));
+        LtsvParser parser = LtsvParser.builder().withBatchSize(16).build();
+        List<Integer> ids = parser.stream(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)))
+                .parallel()
+                .map(row -> Integer.valueOf(row.get("id")))
+                .collect(Collectors.toList());
+        assertEquals("Parallel stream keeps row order", IntStream.range(0, 10000).boxed().collect(Collectors.toList()), ids);
+    }
+
+    @Test
+    public void testParallelFileStream() throws Exception {
+        String data = IntStream.range(0, 3000).mapToObj(i -> "id:" + i + (i % 7 == 0 ? "\tmsg:\"a\nb\n\nc\"" : "\tesc:x\\\ny"))
+                .collect(Collectors.joining("\n"));
+        Path file = folder.newFile().toPath();
+        Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+        LtsvParser parser = LtsvParser.builder().withChunkSize(37).build();
+        List<Map<String, String>> expected = parser.stream(file).collect(Collectors.toList());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals("Parallel stream of a file keeps rows and their order", expected,
+                    pool.submit(() -> parser.stream(file).parallel().collect(Collectors.toList())).get());
+            assertEquals("Parallel stream of a string keeps rows and their order", expected,
+                    pool.submit(() -> parser.stream(data, StandardCharsets.UTF_8).parallel().collect(Collectors.toList())).get());
+            assertEquals("Short-circuiting parallel stream", expected.subList(0, 100),
+                    pool.submit(() -> parser.stream(file).parallel().limit(100).collect(Collectors.toList())).get());
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertEquals(3000, expected.size());
+        assertEquals("a\nb\n\nc", expected.get(2996).get("msg"));
+    }
+
+    @Test
+    public void testStreamSplitsParseOwnRanges() throws InterruptedException {
+        String data = IntStream.range(0, 1000).mapToObj(i -> i % 10 == 0 ? "\tbad" : "id:" + i).collect(Collectors.joining("\n"));
+        LtsvMetrics metrics = new LtsvMetrics();
+        Map<Integer, String> threads = new ConcurrentHashMap<>();
+        LtsvParser parser = LtsvParser.builder()
+                .withChunkSize(64)
+                .withMetrics(metrics)
+                .withDeadLetterHandler((line, lineNum, position, error) -> threads.put(lineNum, Thread.currentThread().getName()))
+                .build();
+        Spliterator<Map<String, String>> suffix = parser.stream(data, StandardCharsets.UTF_8).spliterator();
+        assertEquals("Size is estimated in bytes", data.length(), suffix.estimateSize());
+        Spliterator<Map<String, String>> prefix = suffix.trySplit();
+        assertNotNull("String is split", prefix);
+        assertEquals("Nothing is parsed on split", 0, metrics.lines());
+        assertEquals("Sizes of splits add up", data.length(), prefix.estimateSize() + suffix.estimateSize());
+        List<Map<String, String>> first = new ArrayList<>();
+        List<Map<String, String>> second = new ArrayList<>();
+        Thread head = new Thread(() -> prefix.forEachRemaining(first::add), "head");
+        Thread tail = new Thread(() -> suffix.forEachRemaining(second::add), "tail");
+        head.start();
+        head.join();
+        assertThat("Prefix is parsed up to the cut", metrics.lines(), allOf(greaterThan(0L), lessThan(1000L)));
+        tail.start();
+        tail.join();
+        assertEquals("Every line is parsed once", 900, metrics.lines());
+        assertEquals("Every error is counted once", 100, metrics.errors());
+        assertEquals("Rejected lines get right numbers", IntStream.range(0, 100).mapToObj(i -> i * 10).collect(Collectors.toSet()), threads.keySet());
+        assertThat("Each split is parsed on its own thread", new HashSet<>(threads.values()), containsInAnyOrder("head", "tail"));
+        first.addAll(second);
+        assertEquals("Splits return all rows in order", parser.stream(data, StandardCharsets.UTF_8).collect(Collectors.toList()), first);
+    }
+
+    @Test
+    public void testStreamClosesInput() {
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream in = new ByteArrayInputStream("abc:1".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        try (Stream<Map<String, String>> stream = LtsvParser.builder().build().stream(in)) {
+            assertEquals(1, stream.count());
+            assertFalse("Input is open while stream is open", closed.get());
+        }
+        assertTrue("Input is closed with stream", closed.get());
+    }
+
+    @Test
+    public void testStreamWithoutAvailable() {
+        byte[] bytes = "abc:1\ndef:2\n\nghi:3".getBytes(StandardCharsets.UTF_8);
+        // like a pipe or a socket: data comes in small pieces and nothing is reported as available
+        InputStream in = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 2));
+            }
+
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+        };
+        Iterator<Map<String, String>> it = LtsvParser.builder().build().parse(in);
+        assertEquals("1", it.next().get("abc"));
+        assertEquals("2", it.next().get("def"));
+        assertTrue("Iterator must detect data by reading ahead", it.hasNext());
+        assertEquals(0, it.next().size());
+        assertEquals("3", it.next().get("ghi"));
+        assertFalse("Iterator does not have any items left", it.hasNext());
+    }
+
+    @Test
+    public void testTail() throws Exception {
+        ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+        chunks.add("abc:1\nab".getBytes(StandardCharsets.UTF_8));
+        // like a file being appended: end of data is reported until more data is written
+        InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                byte[] chunk = chunks.poll();
+                if (chunk == null) {
+                    return -1;
+                }
+                System.arraycopy(chunk, 0, b, off, chunk.length);
+                return chunk.length;
+            }
+        };
+        Thread writer = new Thread(() -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            chunks.add("c:2\n".getBytes(StandardCharsets.UTF_8));
+        });
+        writer.start();
+        Iterator<Map<String, String>> it = LtsvParser.builder().build().tail(in, 1, TimeUnit.MILLISECONDS);
+        assertEquals("1", it.next().get("abc"));
+        assertTrue("Iterator must wait for more data", it.hasNext());
+        assertEquals("Incomplete line must be completed by appended data", "2", it.next().get("abc"));
+        writer.join();
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse("Iteration ends when a thread is interrupted", it.hasNext());
+        }
+        finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testHandler() {
+        String data = "srcip:10.0.0.1\tsentbyte:100\nsrcip:\"10.0.0.2\"\tsentbyte:2\\00\n\nsrcip:10.0.0.1\tsentbyte:300\n";
+        Map<String, Long> sent = new HashMap<>();
+        List<String> events = new ArrayList<>();
+        LtsvHandler handler = new LtsvHandler() {
+            private String srcip;
+
+            private long bytes;
+
+            @Override
+            public void startRecord(int line) {
+                events.add("start " + line);
+                srcip = null;
+                bytes = 0;
+            }
+
+            @Override
+            public void field(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+                String name = new String(key, keyOffset, keyLength, StandardCharsets.UTF_8);
+                if (name.equals("srcip")) {
+                    srcip = new String(value, valueOffset, valueLength, StandardCharsets.UTF_8);
+                }
+                else {
+                    for (int i = valueOffset; i < valueOffset + valueLength; i++) {
+                        bytes = bytes * 10 + value[i] - '0';
+                    }
+                }
+            }
+
+            @Override
+            public void endRecord() {
+                events.add("end");
+                if (srcip != null) {
+                    sent.merge(srcip, bytes, Long::sum);
+                }
+            }
+        };
+        LtsvParser parser = LtsvParser.builder().withBufferSize(5).build();
+        parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), handler);
+        assertThat(events, contains("start 0", "end", "start 1", "end", "start 2", "end", "start 3", "end"));
+        assertEquals(2, sent.size());
+        assertEquals(Long.valueOf(400), sent.get("10.0.0.1"));
+        assertEquals("Quoted and escaped values are unescaped", Long.valueOf(200), sent.get("10.0.0.2"));
+    }
+
+    @Test
+    public void testHandlerNulls() {
+        List<String> fields = new ArrayList<>();
+        LtsvParser parser = LtsvParser.builder().lenient().build();
+        parser.parse(new ByteArrayInputStream("abc:\t:1".getBytes(StandardCharsets.UTF_8)), (key, keyOffset, keyLength, value, valueOffset, valueLength) -> {
+            fields.add((key == null ? "null" : new String(key, keyOffset, keyLength, StandardCharsets.UTF_8)) + "=" +
+                    (value == null ? "null" : new String(value, valueOffset, valueLength, StandardCharsets.UTF_8)));
+        });
+        assertThat("Missing keys and empty values are passed as null arrays", fields, contains("abc=null", "null=1"));
+    }
+
+    @Test
+    public void testCharsetSingleByte() {
+        byte[] data = "name:Caf\u00e9\tcity:Z\u00fcrich\n".getBytes(StandardCharsets.ISO_8859_1);
+        LtsvParser parser = LtsvParser.builder().withCharset(StandardCharsets.ISO_8859_1).build();
+        Map<String, String> row = parser.parse(new ByteArrayInputStream(data)).next();
+        assertEquals("Non-ASCII value must be decoded with configured charset", "Caf\u00e9", row.get("name"));
+        assertEquals("Non-ASCII value must be decoded with configured charset", "Z\u00fcrich", row.get("city"));
+    }
+
+    @Test
+    public void testCharsetMultiByte() {
+        Charset sjis = Charset.forName("Shift_JIS");
+        // the second byte of \u30bd is the same as a backslash, which must not be taken for an escape character
+        byte[] data = "\u540d\u524d:\u30bd\u30d5\u30c8\tid:1\n".getBytes(sjis);
+        LtsvParser parser = LtsvParser.builder().withCharset(sjis).build();
+        Map<String, String> row = parser.parse(new ByteArrayInputStream(data)).next();
+        assertEquals("Multibyte value must be decoded with configured charset", "\u30bd\u30d5\u30c8", row.get("\u540d\u524d"));
+        assertEquals("1", row.get("id"));
+    }
+
+    @Test
+    public void testCharsetUtf16() {
+        String data = "abc:\u00e9\u20ac\ud83d\ude00\tdef:2\nghi:3";
+        LtsvParser parser = LtsvParser.builder().withCharset(StandardCharsets.UTF_16).selectKeys("abc", "ghi").build();
+        InputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_16)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                // split characters between reads
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        Iterator<Map<String, String>> it = parser.parse(in);
+        Map<String, String> first = it.next();
+        assertEquals("UTF-16 input must be transcoded", "\u00e9\u20ac\ud83d\ude00", first.get("abc"));
+        assertFalse("Projection must work on transcoded input", first.containsKey("def"));
+        assertEquals("3", it.next().get("ghi"));
+        assertFalse("Iterator does not have any items left", it.hasNext());
+        assertEquals("Strings must be decoded the same way", "\u00e9\u20ac\ud83d\ude00", parser.parse(data, StandardCharsets.UTF_16).next().get("abc"));
+    }
+
+    @Test
+    public void testCharsetIncompleteCharacter() {
+        byte[] data = "abc:1\ndef:2".getBytes(StandardCharsets.UTF_16);
+        // half of a character
+        byte[] utf16 = Arrays.copyOf(data, data.length + 1);
+        Iterator<Map<String, String>> it = LtsvParser.builder().withCharset(StandardCharsets.UTF_16).build().parse(new ByteArrayInputStream(utf16));
+        assertEquals("1", it.next().get("abc"));
+        assertThat("Incomplete character is replaced the same way as by String", new String(utf16, StandardCharsets.UTF_16), endsWith("2\ufffd"));
+        assertEquals("Incomplete character at the end must be replaced", "2\ufffd", it.next().get("def"));
+        assertFalse("Iterator does not have any items left", it.hasNext());
+
+        Charset sjis = Charset.forName("Shift_JIS");
+        byte[] truncated = Arrays.copyOf("abc:\u30bd".getBytes(sjis), 5);
+        Map<String, String> row = LtsvParser.builder().withCharset(sjis).build().parse(new ByteArrayInputStream(truncated)).next();
+        assertEquals("Incomplete character at the end must be replaced", new String(truncated, sjis).substring(4), row.get("abc"));
+        assertEquals("\ufffd", row.get("abc"));
+    }
+
+    @Test
+    public void testCharsetTail() throws Exception {
+        byte[] data = "abc:\u00e9\n".getBytes(StandardCharsets.UTF_16BE);
+        ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+        chunks.add(Arrays.copyOf(data, 9));
+        InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                byte[] chunk = chunks.poll();
+                if (chunk == null) {
+                    return -1;
+                }
+                System.arraycopy(chunk, 0, b, off, chunk.length);
+                return chunk.length;
+            }
+        };
+        Thread writer = new Thread(() -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            chunks.add(Arrays.copyOfRange(data, 9, data.length));
+        });
+        writer.start();
+        Iterator<Map<String, String>> it = LtsvParser.builder().withCharset(StandardCharsets.UTF_16BE).build().tail(in, 1, TimeUnit.MILLISECONDS);
+        assertEquals("Character split by the end of a tailed source must be completed by appended data", "\u00e9", it.next().get("abc"));
+        writer.join();
+    }
+
+    @Test
+    public void testCharsetOfString() {
+        LtsvParser parser = LtsvParser.builder().build();
+        Map<String, String> row = parser.parse("abc:\u00e9\u00e8", StandardCharsets.ISO_8859_1).next();
+        assertEquals("String must be decoded with the charset it was encoded with", "\u00e9\u00e8", row.get("abc"));
+        row = parser.parse("abc:\u00e9\u20ac", StandardCharsets.ISO_8859_1).next();
+        assertEquals("Characters a charset can not represent must be replaced", "\u00e9?", row.get("abc"));
+    }
+
+    @Test
+    public void testCharsetNotMappable() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "abc:1".getBytes(StandardCharsets.UTF_16));
+        LtsvParser parser = LtsvParser.builder().withCharset(StandardCharsets.UTF_16).build();
+        try {
+            parser.parse(file);
+            fail("Transcoded files can not be memory-mapped");
+        }
+        catch (UnsupportedOperationException ex) {
+            assertThat(ex.getMessage(), containsString("UTF-16"));
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals("1", parser.parse(in).next().get("abc"));
+        }
+    }
+
+    @Test
+    public void testParseCharSequence() {
+        String data = "abc:\"1\\\"2\"\tdef:\u00e9\u20ac\tghi:\n\njkl: 4 \tabc:5";
+        LtsvParser parser = LtsvParser.builder().trimValues().build();
+        List<Map<String, String>> expected = new ArrayList<>();
+        parser.parse(data, StandardCharsets.UTF_8).forEachRemaining(expected::add);
+        List<Map<String, String>> actual = new ArrayList<>();
+        parser.parse(new StringBuilder(data)).forEachRemaining(actual::add);
+        assertEquals("Characters must be parsed the same way as bytes", expected, actual);
+        assertEquals("1\"2", actual.get(0).get("abc"));
+        assertEquals("\u00e9\u20ac", actual.get(0).get("def"));
+        assertEquals(0, actual.get(1).size());
+        assertEquals("4", actual.get(2).get("jkl"));
+    }
+
+    @Test
+    public void testParseCharSequenceCaches() {
+        LtsvParser parser = LtsvParser.builder().internKeys(16).cacheValues(16, "type").selectKeys("abc", "type").build();
+        Map<String, String> bytes = parser.parse("abc:1\ttype:traffic\tdef:2", StandardCharsets.UTF_8).next();
+        Map<String, String> chars = parser.parse("abc:1\ttype:traffic\tdef:2").next();
+        assertThat("Projection must work on characters", chars.keySet(), containsInAnyOrder("abc", "type"));
+        assertSame("Keys interned from bytes must be found by characters", bytes.keySet().stream().filter("abc"::equals).findFirst().get(),
+                chars.keySet().stream().filter("abc"::equals).findFirst().get());
+        assertSame("Values cached from bytes must be found by characters", bytes.get("type"), chars.get("type"));
+        assertNotSame(bytes.get("abc"), chars.get("abc"));
+    }
+
+    @Test
+    public void testParseCharSequenceWideDelimiters() {
+        LtsvParser parser = LtsvParser.builder().withEntryDelimiter('│').withKvDelimiter('→').build();
+        Map<String, String> row = parser.parse("abc→1│é→é→│def:2").next();
+        assertThat(row, hasEntry("abc", "1"));
+        assertThat("Characters beyond a byte are delimiters of characters", row, hasEntry("é", "é→"));
+        assertThat(row, hasEntry("def:2", null));
+        try {
+            parser.parse("abc│def→2").next();
+            fail("Key without a value must be detected");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Key without a value at line [0] position [4]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseCharSequenceError() {
+        try {
+            LtsvParser.builder().build().parse("\u00e9\u00e9:1\tabc\tdef:2").next();
+            fail("Key without a value must be detected");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Positions are counted in characters", "Key without a value at line [0] position [9]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testErrorPolicyFailResyncs() {
+        Iterator<Map<String, String>> it = LtsvParser.builder().build().parse("abc:1\nabc\tdef:2\nabc:3\n", StandardCharsets.UTF_8);
+        assertEquals("1", it.next().get("abc"));
+        try {
+            it.next();
+            fail("Strict parser must fail on a key without a value");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Key without a value at line [1] position [4]", ex.getMessage());
+        }
+        assertEquals("Parsing goes on with the next line", "3", it.next().get("abc"));
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testErrorPolicySkipLine() {
+        LtsvParser parser = LtsvParser.builder().withErrorPolicy(LtsvErrorPolicy.SKIP_LINE).withBufferSize(4).build();
+        String data = "abc\tdef:1\nabc:1\tdef:\"x\ny\"\n\"abc\":2\nabc:3\nabc:4\t\\def:5";
+        List<String> expected = Arrays.asList("1", "3");
+        assertEquals("Bytes", expected, values(parser.parse(data, StandardCharsets.UTF_8)));
+        assertEquals("Characters", expected, values(parser.parse((CharSequence) data)));
+        assertEquals("Stream", expected, values(parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)))));
+        assertEquals("Java stream", expected, parser.stream(data, StandardCharsets.UTF_8).map(row -> row.get("abc")).collect(Collectors.toList()));
+        assertEquals("Parallel stream", expected, parser.stream(data, StandardCharsets.UTF_8).parallel().map(row -> row.get("abc")).collect(Collectors.toList()));
+        Iterator<LtsvRecord> records = parser.parseRecords(data, StandardCharsets.UTF_8);
+        assertEquals("1", records.next().get("abc"));
+        assertEquals("3", records.next().get("abc"));
+        assertFalse("A malformed last line is dropped", records.hasNext());
+        RecordBatch batch = new RecordBatch();
+        assertEquals("Dropped lines are not counted in a batch", 2, parser.parseBatch(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), batch, 10));
+        assertFalse(parser.parse("\"abc\":1", StandardCharsets.UTF_8).hasNext());
+    }
+
+    @Test
+    public void testErrorPolicyDeadLetter() {
+        List<String> rejected = new ArrayList<>();
+        LtsvParser parser = LtsvParser.builder().withBufferSize(4).withDeadLetterHandler((line, lineNum, position, error) ->
+                rejected.add(new String(line, StandardCharsets.UTF_8) + "|" + lineNum + "|" + position + "|" + error.getMessage())).build();
+        String data = "abc:1\n\u00e9\u00e9\tdef:1\nabc:2\n:3";
+        assertEquals(Arrays.asList("1", "2"), values(parser.parse(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)))));
+        assertEquals(Arrays.asList("\u00e9\u00e9\tdef:1|1|6|Key without a value at line [1] position [5]", ":3|3|23|Empty key detected at line [3] position [1]"), rejected);
+        rejected.clear();
+        assertEquals(Arrays.asList("1", "2"), values(parser.parse((CharSequence) data)));
+        assertEquals("Positions are counted in characters", Arrays.asList("\u00e9\u00e9\tdef:1|1|6|Key without a value at line [1] position [3]", ":3|3|21|Empty key detected at line [3] position [1]"), rejected);
+    }
+
+    @Test
+    public void testErrorPolicyInvalidValue() {
+        List<Integer> rejected = new ArrayList<>();
+        LtsvSchema schema = LtsvSchema.builder().field("bytes", LtsvSchema.Type.LONG).build();
+        LtsvParser parser = LtsvParser.builder().withSchema(schema).withDeadLetterHandler((line, lineNum, position, error) -> rejected.add(lineNum)).build();
+        Iterator<LtsvRecord> it = parser.parseRecords("bytes:1\nbytes:x\nbytes:3", StandardCharsets.UTF_8);
+        assertEquals(1, it.next().getLong(schema.field("bytes")));
+        assertEquals(3, it.next().getLong(schema.field("bytes")));
+        assertFalse(it.hasNext());
+        assertEquals("A line with a value of a wrong type is rejected", Arrays.asList(1), rejected);
+    }
+
+    @Test
+    public void testParallelParseDeadLetters() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i % 250 == 7 ? "abc\tdef:" + i : "id:" + i + "\tmsg:\"x\ny\"").append("\n");
+        }
+        Path file = folder.newFile().toPath();
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        List<Integer> rejected = new ArrayList<>();
+        LtsvParser parser = LtsvParser.builder().withChunkSize(100).withDeadLetterHandler((line, lineNum, position, error) -> {
+            assertEquals("Line numbers are counted from the start of file", "abc\tdef:" + lineNum, new String(line, StandardCharsets.UTF_8));
+            rejected.add(lineNum);
+        }).build();
+        List<Map<String, String>> rows = new ArrayList<>();
+        parser.parallelParse(file).forEachRemaining(rows::add);
+        assertEquals(1992, rows.size());
+        assertEquals("Rows after a rejected line are returned", "8", rows.get(7).get("id"));
+        assertEquals(Arrays.asList(7, 257, 507, 757, 1007, 1257, 1507, 1757), rejected);
+    }
+
+    @Test
+    public void testInvalidErrorPolicy() {
+        try {
+            LtsvParser.builder().withErrorPolicy(LtsvErrorPolicy.DEAD_LETTER);
+            fail("Dead letter policy needs a handler");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Dead letter policy needs a handler, use withDeadLetterHandler", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMalformedException() {
+        try {
+            LtsvParser.builder().build().parse("abc:1\tdef:2\nghi\\:3", StandardCharsets.UTF_8).forEachRemaining(row -> {});
+            fail("Strict parser must fail on an escape in a key");
+        }
+        catch (MalformedLtsvException ex) {
+            assertEquals(LtsvError.UNEXPECTED_ESCAPE, ex.error());
+            assertEquals(1, ex.lineNumber());
+            assertEquals(4, ex.position());
+            assertNull(ex.key());
+            assertEquals("Unexpected escape token [\\] at line [1] position [4]", ex.getMessage());
+            assertSame("Message is formatted once", ex.getMessage(), ex.getMessage());
+            assertTrue("Stack traces are captured by default", ex.getStackTrace().length > 0);
+        }
+        try {
+            LtsvParser.builder().skipStackTraces().build().parse(":1").next();
+            fail("Strict parser must fail on an empty key");
+        }
+        catch (MalformedLtsvException ex) {
+            assertEquals(LtsvError.EMPTY_KEY, ex.error());
+            assertEquals("Empty key detected at line [0] position [1]", ex.getMessage());
+            assertEquals("Stack traces are skipped", 0, ex.getStackTrace().length);
+        }
+        LtsvSchema schema = LtsvSchema.builder().field("bytes", LtsvSchema.Type.LONG).build();
+        List<MalformedLtsvException> rejected = new ArrayList<>();
+        LtsvParser.builder().withSchema(schema).withDeadLetterHandler((line, lineNum, position, error) -> rejected.add((MalformedLtsvException) error))
+                .build().parse("bytes:1\nbytes:x", StandardCharsets.UTF_8).forEachRemaining(row -> {});
+        assertEquals(1, rejected.size());
+        assertEquals(LtsvError.INVALID_VALUE, rejected.get(0).error());
+        assertEquals("bytes", rejected.get(0).key());
+        assertEquals(-1, rejected.get(0).position());
+        assertEquals("Invalid LONG value for key [bytes] at line [1]", rejected.get(0).getMessage());
+        assertEquals("Dropped lines do not capture stack traces", 0, rejected.get(0).getStackTrace().length);
+    }
+
+    private static List<String> values(Iterator<Map<String, String>> it) {
+        List<String> result = new ArrayList<>();
+        it.forEachRemaining(row -> result.add(row.get("abc")));
+        return result;
+    }
+
+    /**
+     * Remembers the last array it was read into
+     */
+    private static final class WindowStream extends ByteArrayInputStream {
+
+        private byte[] window;
+
+        private WindowStream(String data) {
+            super(data.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            window = b;
+            return super.read(b, off, len);
+        }
+    }
+
 }
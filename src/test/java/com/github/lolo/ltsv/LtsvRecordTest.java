@@ -0,0 +1,229 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class LtsvRecordTest {
+
+    @Test
+    public void testRecordAccessors() {
+        LtsvParser parser = LtsvParser.builder().strict().build();
+        Iterator<LtsvRecord> it = parser.parseRecords("abc:1\tdef:\"x\\\"y\"\tghi:\tjkl:-42", StandardCharsets.UTF_8);
+        assertTrue("Iterator must be non-empty", it.hasNext());
+        LtsvRecord record = it.next();
+        assertEquals("Record contains four entries", 4, record.size());
+        assertEquals("abc", record.key(0));
+        assertEquals("1", record.value(0));
+        assertEquals("1", record.get("abc"));
+        assertEquals("Escaped value is unescaped", "x\"y", record.get("def"));
+        assertNull("Empty value is null", record.get("ghi"));
+        assertTrue(record.containsKey("ghi"));
+        assertFalse(record.containsKey("xyz"));
+        assertNull(record.get("xyz"));
+        assertEquals(1, record.getInt("abc"));
+        assertEquals(-42L, record.getLong("jkl"));
+        assertArrayEquals("x\"y".getBytes(StandardCharsets.UTF_8), record.getBytes("def"));
+        assertNull(record.getBytes("ghi"));
+        assertFalse("Iterator does not have any items left", it.hasNext());
+    }
+
+    @Test
+    public void testRecordToMap() {
+        LtsvParser parser = LtsvParser.builder().lenient().trimValues().build();
+        Iterator<LtsvRecord> it = parser.parseRecords("abc:1\t: 2 \tabc:3\tабв:где", StandardCharsets.UTF_8);
+        LtsvRecord record = it.next();
+        Map<String, String> data = record.toMap();
+        assertEquals("Map contains three entries", 3, data.size());
+        assertThat(data, hasEntry("abc", "3"));
+        assertThat(data, hasEntry(null, "2"));
+        assertThat(data, hasEntry("абв", "где"));
+        assertEquals("Last duplicate wins", "3", record.get("abc"));
+        assertEquals("2", record.get(null));
+        assertEquals("где", record.get(new StringBuilder("абв")));
+    }
+
+    @Test
+    public void testRecordIsReusedPerLine() {
+        LtsvParser parser = LtsvParser.builder().withBufferSize(3).build();
+        Iterator<LtsvRecord> it = parser.parseRecords(new ByteArrayInputStream("abc:1\tdef:2\nabc:3\n\nghi:\"4\t5\"".getBytes(StandardCharsets.UTF_8)));
+        LtsvRecord first = it.next();
+        assertEquals(0, first.lineNumber());
+        assertEquals("1", first.get("abc"));
+        assertEquals("2", first.get("def"));
+        LtsvRecord second = it.next();
+        assertSame("Record view is reused", first, second);
+        assertEquals(1, second.lineNumber());
+        assertEquals("3", second.get("abc"));
+        assertEquals(1, second.size());
+        assertEquals(0, it.next().size());
+        assertEquals("4\t5", it.next().get("ghi"));
+        assertFalse("Iterator does not have any items left", it.hasNext());
+    }
+
+    @Test
+    public void testRecordNumberLimits() {
+        LtsvParser parser = LtsvParser.builder().build();
+        LtsvRecord record = parser.parseRecords("a:9223372036854775807\tb:-9223372036854775808\tc:2147483647\td:-2147483648\te:+7", StandardCharsets.UTF_8).next();
+        assertEquals(Long.MAX_VALUE, record.getLong("a"));
+        assertEquals(Long.MIN_VALUE, record.getLong("b"));
+        assertEquals(Integer.MAX_VALUE, record.getInt("c"));
+        assertEquals(Integer.MIN_VALUE, record.getInt("d"));
+        assertEquals(7, record.getInt("e"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRecordLongOverflow() {
+        LtsvParser parser = LtsvParser.builder().build();
+        parser.parseRecords("a:9223372036854775808", StandardCharsets.UTF_8).next().getLong("a");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRecordIntOverflow() {
+        LtsvParser parser = LtsvParser.builder().build();
+        parser.parseRecords("a:2147483648", StandardCharsets.UTF_8).next().getInt("a");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRecordNotANumber() {
+        LtsvParser parser = LtsvParser.builder().build();
+        parser.parseRecords("a:1x", StandardCharsets.UTF_8).next().getInt("a");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRecordMissingNumber() {
+        LtsvParser parser = LtsvParser.builder().build();
+        parser.parseRecords("a:1", StandardCharsets.UTF_8).next().getLong("b");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRecordIndexOutOfBounds() {
+        LtsvParser parser = LtsvParser.builder().build();
+        parser.parseRecords("a:1", StandardCharsets.UTF_8).next().key(1);
+    }
+
+    @Test
+    public void testSchemaTypes() {
+        LtsvSchema schema = LtsvSchema.builder()
+                .field("srcport", LtsvSchema.Type.INT)
+                .field("sentbyte", LtsvSchema.Type.LONG)
+                .field("duration", LtsvSchema.Type.DOUBLE)
+                .field("srcip", LtsvSchema.Type.IPV4)
+                .field("time", LtsvSchema.Type.EPOCH_MILLIS)
+                .field("eventtime", LtsvSchema.Type.EPOCH_MILLIS)
+                .build();
+        LtsvParser parser = LtsvParser.builder().withSchema(schema).build();
+        Iterator<LtsvRecord> it = parser.parseRecords("srcport:443\tsentbyte:9223372036854775807\tduration:-1.25e2\t" +
+                "srcip:\"192.168.0.255\"\ttime:[28/Feb/2013:12:00:00 +0900]\teventtime:2013-02-28T12:00:00.5-01:30\tsrcport:8080\n" +
+                "srcport:\tsentbyte:1", StandardCharsets.UTF_8);
+        LtsvRecord record = it.next();
+        assertEquals("Last duplicate wins", 8080, record.getInt(schema.field("srcport")));
+        assertEquals(Long.MAX_VALUE, record.getLong(schema.field("sentbyte")));
+        assertEquals(-125.0, record.getDouble(schema.field("duration")), 0);
+        assertEquals(0xC0A800FF, record.getIpv4(schema.field("srcip")));
+        assertEquals(OffsetDateTime.parse("2013-02-28T12:00:00+09:00").toInstant().toEpochMilli(), record.getEpochMillis(schema.field("time")));
+        assertEquals(OffsetDateTime.parse("2013-02-28T12:00:00.5-01:30").toInstant().toEpochMilli(), record.getEpochMillis(schema.field("eventtime")));
+        record = it.next();
+        assertFalse("Empty value is missing", record.isPresent(schema.field("srcport")));
+        assertFalse("Absent key is missing", record.isPresent(schema.field("srcip")));
+        assertEquals("Fields are refilled for every line", 1, record.getLong(schema.field("sentbyte")));
+        try {
+            record.getInt(schema.field("srcport"));
+            fail("Missing field must not be returned");
+        }
+        catch (NumberFormatException ex) {
+            assertEquals("No value for key [srcport]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSchemaInvalidValues() {
+        LtsvSchema schema = LtsvSchema.builder().field("ip", LtsvSchema.Type.IPV4).field("time", LtsvSchema.Type.EPOCH_MILLIS).build();
+        String data = "ip:1.2.3.256\ttime:2013-02-30T00:00:00Z";
+        try {
+            LtsvParser.builder().withSchema(schema).build().parseRecords(data, StandardCharsets.UTF_8).next();
+            fail("Strict parser must fail on an invalid value");
+        }
+        catch (ParseLtsvException ex) {
+            assertEquals("Invalid IPV4 value for key [ip] at line [0]", ex.getMessage());
+        }
+        LtsvRecord record = LtsvParser.builder().lenient().withSchema(schema).build().parseRecords(data, StandardCharsets.UTF_8).next();
+        assertFalse("Lenient parser treats an invalid value as missing", record.isPresent(schema.field("ip")));
+        assertFalse(record.isPresent(schema.field("time")));
+        assertEquals("Raw value is still available", "1.2.3.256", record.get("ip"));
+    }
+
+    @Test
+    public void testSchemaFieldChecks() {
+        LtsvSchema schema = LtsvSchema.builder().field("abc", LtsvSchema.Type.LONG).build();
+        LtsvSchema other = LtsvSchema.builder().field("abc", LtsvSchema.Type.LONG).build();
+        LtsvRecord record = LtsvParser.builder().withSchema(schema).build().parseRecords("abc:1", StandardCharsets.UTF_8).next();
+        try {
+            record.getInt(schema.field("abc"));
+            fail("Field type must be checked");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Field [abc:LONG] is not of type INT", ex.getMessage());
+        }
+        try {
+            record.getLong(other.field("abc"));
+            fail("Field schema must be checked");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Field [abc:LONG] is not declared in parser schema", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSchemaDoubles() {
+        LtsvSchema schema = LtsvSchema.builder().field("v", LtsvSchema.Type.DOUBLE).build();
+        LtsvParser parser = LtsvParser.builder().withSchema(schema).build();
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        String[] samples = new String[5000];
+        for (int i = 0; i < samples.length; i++) {
+            switch (i % 4) {
+                case 0: samples[i] = String.valueOf(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)); break;
+                case 1: samples[i] = String.valueOf(random.nextInt(2000000) - 1000000) + "." + random.nextInt(1000); break;
+                case 2: samples[i] = String.format(Locale.ROOT, "%.17e", random.nextGaussian()); break;
+                default: samples[i] = "0.000" + Math.abs(random.nextLong()); break;
+            }
+            sb.append("v:").append(samples[i]).append('\n');
+        }
+        Iterator<LtsvRecord> it = parser.parseRecords(sb.toString(), StandardCharsets.UTF_8);
+        for (String sample : samples) {
+            assertEquals(sample, Double.parseDouble(sample), it.next().getDouble(schema.field("v")), 0);
+        }
+    }
+
+    @Test
+    public void testSchemaTimestamps() {
+        LtsvSchema schema = LtsvSchema.builder().field("t", LtsvSchema.Type.EPOCH_MILLIS).build();
+        LtsvParser parser = LtsvParser.builder().withSchema(schema).build();
+        DateTimeFormatter common = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long millis = random.nextLong() % 4_000_000_000_000L;
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.ofHoursMinutes(random.nextInt(25) - 12, 0));
+            String iso = time.toOffsetDateTime().toString();
+            LtsvRecord record = parser.parseRecords("t:" + iso, StandardCharsets.UTF_8).next();
+            assertEquals(iso, millis, record.getEpochMillis(schema.field("t")));
+            record = parser.parseRecords("t:[" + common.format(time) + "]", StandardCharsets.UTF_8).next();
+            assertEquals(common.format(time), Math.floorDiv(millis, 1000) * 1000, record.getEpochMillis(schema.field("t")));
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.github.lolo.ltsv;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RecordBatchTest {
+
+    @Test
+    public void testBatchAccessors() {
+        LtsvParser parser = LtsvParser.builder().lenient().build();
+        RecordBatch batch = new RecordBatch();
+        int count = parser.parseBatch(input("abc:1\tdef:\"x\\\"y\"\tghi:\tabc:2\n:5\n"), batch, 10);
+        assertEquals("Batch contains both lines", 2, count);
+        assertEquals(2, batch.size());
+        assertEquals(4, batch.fieldCount(0));
+        assertEquals("abc", batch.key(0, 0));
+        assertEquals("1", batch.value(0, 0));
+        assertEquals("Escaped value is unescaped", "x\"y", batch.value(0, 1));
+        assertNull("Empty value is null", batch.value(0, 2));
+        assertEquals(-1, batch.valueLength(0, 2));
+        assertEquals("Last duplicate key wins", "2", batch.get(0, "abc"));
+        assertNull(batch.get(0, "xyz"));
+        assertNull("Missing key is null", batch.key(1, 0));
+        assertEquals("5", batch.get(1, null));
+        assertEquals("def", new String(batch.arena(), batch.keyOffset(0, 1), batch.keyLength(0, 1), StandardCharsets.UTF_8));
+        assertEquals("y", new String(batch.arena(), batch.valueOffset(0, 1) + 2, 1, StandardCharsets.UTF_8));
+        try {
+            batch.key(0, 4);
+            fail("Field index must be checked");
+        }
+        catch (IndexOutOfBoundsException ex) {
+            assertEquals("Index [4] is out of record bounds [4]", ex.getMessage());
+        }
+        try {
+            batch.toMap(2);
+            fail("Record index must be checked");
+        }
+        catch (IndexOutOfBoundsException ex) {
+            assertEquals("Index [2] is out of batch bounds [2]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchContinuesInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            sb.append("id:").append(i).append("\tname:n").append(i % 7).append("\n");
+        }
+        LtsvParser parser = LtsvParser.builder().withBufferSize(64).build();
+        Iterator<Map<String, String>> expected = parser.parse(sb.toString(), StandardCharsets.UTF_8);
+        InputStream in = input(sb.toString());
+        RecordBatch batch = new RecordBatch();
+        int total = 0;
+        int count;
+        while ((count = parser.parseBatch(in, batch, 1000)) > 0) {
+            for (int i = 0; i < count; i++) {
+                assertEquals("Line numbers continue between batches", total + i, batch.lineNumber(i));
+                assertEquals(expected.next(), batch.toMap(i));
+            }
+            total += count;
+        }
+        assertEquals(2500, total);
+        assertFalse(expected.hasNext());
+        assertEquals("Exhausted input gives empty batches", 0, parser.parseBatch(in, batch, 1000));
+    }
+
+    @Test
+    public void testBatchReusesBuffers() {
+        LtsvParser parser = LtsvParser.builder().build();
+        RecordBatch batch = new RecordBatch();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("key:").append(i % 10).append("\tvalue:0123456789abcdef\n");
+        }
+        InputStream in = input(sb.toString());
+        parser.parseBatch(in, batch, 100);
+        byte[] arena = batch.arena();
+        while (parser.parseBatch(in, batch, 100) > 0) {
+            assertSame("Arena is reused by batches of the same size", arena, batch.arena());
+        }
+        assertEquals("Another input starts from the first line", 1, parser.parseBatch(input("abc:1"), batch, 100));
+        assertEquals(0, batch.lineNumber(0));
+        assertEquals("1", batch.get(0, "abc"));
+    }
+
+    private static InputStream input(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+}